@@ -1,14 +1,25 @@
 package workshop_jooq.controllers;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SequenceWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.media.Content;
 import io.swagger.v3.oas.annotations.media.Schema;
 import io.swagger.v3.oas.annotations.responses.ApiResponse;
 import io.swagger.v3.oas.annotations.tags.Tag;
+import jakarta.servlet.http.HttpServletResponse;
+import jakarta.validation.constraints.DecimalMax;
+import jakarta.validation.constraints.DecimalMin;
 import jakarta.validation.constraints.Max;
 import jakarta.validation.constraints.Min;
+import jakarta.validation.constraints.Size;
 import lombok.RequiredArgsConstructor;
 import org.springframework.data.domain.Page;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.validation.annotation.Validated;
@@ -17,12 +28,29 @@ import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import workshop_jooq.dtos.CacheStatsDto;
+import workshop_jooq.dtos.CursorPageDto;
 import workshop_jooq.dtos.OfficeDto;
+import workshop_jooq.dtos.OfficeWithBrokersDto;
+import workshop_jooq.dtos.PropertyClusterDto;
 import workshop_jooq.dtos.PropertyDto;
+import workshop_jooq.dtos.PropertyFacetsDto;
+import workshop_jooq.dtos.PropertyLocationDto;
+import workshop_jooq.dtos.PropertySearchFilterDto;
+import workshop_jooq.dtos.PropertySummaryDto;
+import workshop_jooq.enam.PropertySearchSort;
 import workshop_jooq.services.ExportService;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
+import java.util.function.Consumer;
+import java.util.zip.GZIPOutputStream;
 
 /**
  * REST controller for data export operations.
@@ -47,7 +75,13 @@ import java.util.UUID;
 @Tag(name = "Export", description = "Export API related to properties operations")
 public class ExportController {
 
+    private static final String APPLICATION_NDJSON_VALUE = "application/x-ndjson";
+    private static final String DATABASE_ENGINE_ETAG_SUFFIX = "-db";
+    private static final String TEXT_CSV_VALUE = "text/csv";
+    private static final String APPLICATION_GZIP_VALUE = "application/gzip";
+
     private final ExportService exportService;
+    private final ObjectMapper objectMapper;
 
     /**
      * Retrieves detailed information about a specific property.
@@ -58,21 +92,99 @@ public class ExportController {
      *   <li>Proper HTTP GET semantics for retrieving data</li>
      *   <li>Response wrapping with ResponseEntity</li>
      * </ul>
+     * <p>
+     * The response carries a strong ETag derived from the office's data version. A request whose
+     * {@code If-None-Match} matches it gets 304 Not Modified without any database access.
      *
      * @param officeId   ID of the office that owns the property
      * @param propertyId ID of the property to retrieve
-     * @return Response entity containing the property DTO
+     * @param webRequest Current request, used for conditional GET handling
+     * @return Response entity containing the property DTO, or 304 if the client's copy is current
      */
     @GetMapping("/export/offices/{officeId}/properties/{propertyId}")
     @Operation(summary = "Get property details by ID", description = "Retrieves detailed information about a specific property")
     @ApiResponse(content = @Content(schema = @Schema(implementation = PropertyDto.class, description = "Property with all related details including broker, address, and images"), mediaType = MediaType.APPLICATION_JSON_VALUE), responseCode = "200")
     public ResponseEntity<PropertyDto> getPropertyById(
             @PathVariable UUID officeId,
-            @PathVariable UUID propertyId
+            @PathVariable UUID propertyId,
+            WebRequest webRequest
     ) {
+        // checkNotModified() also sets the ETag header on the response
+        if (webRequest.checkNotModified(this.exportService.getPropertyVersion(officeId))) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).build();
+        }
         return ResponseEntity.ok(this.exportService.getPropertyById(officeId, propertyId));
     }
 
+    /**
+     * Retrieves detailed information about a specific property, rendered as JSON by the database.
+     * <p>
+     * Selected with {@code engine=database}. The bytes received from the database are copied straight
+     * to the response output stream, without creating DTOs, without a Jackson pass and without decoding
+     * the document into a string.
+     *
+     * Conditional GET works as for the Jackson endpoint; the ETag differs because the bytes do.
+     *
+     * @param officeId   ID of the office that owns the property
+     * @param propertyId ID of the property to retrieve
+     * @param webRequest Current request, used for conditional GET handling
+     * @param response   Servlet response the document is written to
+     */
+    @GetMapping(value = "/export/offices/{officeId}/properties/{propertyId}", params = "engine=database")
+    @Operation(summary = "Get property details by ID (database-rendered JSON)", description = "Retrieves detailed information about a specific property as a JSON document built by the database")
+    @ApiResponse(content = @Content(schema = @Schema(implementation = PropertyDto.class, description = "Property with all related details including broker, address, and images"), mediaType = MediaType.APPLICATION_JSON_VALUE), responseCode = "200")
+    public void getPropertyByIdJson(
+            @PathVariable UUID officeId,
+            @PathVariable UUID propertyId,
+            WebRequest webRequest,
+            HttpServletResponse response
+    ) {
+        if (webRequest.checkNotModified(this.exportService.getPropertyVersion(officeId) + DATABASE_ENGINE_ETAG_SUFFIX)) {
+            return;
+        }
+        // A missing property results in an empty body, the same as a null DTO does
+        response.setStatus(HttpServletResponse.SC_OK);
+        this.exportService.writePropertyByIdJson(officeId, propertyId, json -> writeJson(response, json));
+    }
+
+    /**
+     * Retrieves detailed information about several properties of an office at once.
+     * <p>
+     * This endpoint demonstrates:
+     * <ul>
+     *   <li>Multi-get resource design with an ID list request parameter</li>
+     *   <li>Validation of collection size</li>
+     * </ul>
+     * <p>
+     * All properties are resolved with a single set-based query, so a search result page costs
+     * one request and one statement instead of one per property.
+     *
+     * @param officeId    ID of the office that owns the properties
+     * @param propertyIds IDs of the properties to retrieve (between 1 and 100)
+     * @return Response entity containing a map of property ID to property DTO
+     */
+    @GetMapping(value = "/export/offices/{officeId}/properties", params = "ids")
+    @Operation(summary = "Get several properties by ID", description = "Retrieves detailed information about multiple properties of an office in one request; unknown IDs are omitted from the result")
+    @ApiResponse(content = @Content(schema = @Schema(implementation = PropertyDto.class, description = "Map of property ID to property with all related details"), mediaType = MediaType.APPLICATION_JSON_VALUE), responseCode = "200")
+    public ResponseEntity<Map<UUID, PropertyDto>> getPropertiesByIds(
+            @PathVariable UUID officeId,
+            @RequestParam("ids") @Size(min = 1, max = 100) List<UUID> propertyIds
+    ) {
+        return ResponseEntity.ok(this.exportService.getPropertiesByIds(officeId, propertyIds));
+    }
+
+    /**
+     * Retrieves the counters of the property detail cache.
+     *
+     * @return Response entity containing hit, miss and eviction counts
+     */
+    @GetMapping("/export/cache/properties/stats")
+    @Operation(summary = "Get property cache statistics", description = "Retrieves hit, miss and eviction counters of the property detail cache")
+    @ApiResponse(content = @Content(schema = @Schema(implementation = CacheStatsDto.class, description = "Property detail cache statistics"), mediaType = MediaType.APPLICATION_JSON_VALUE), responseCode = "200")
+    public ResponseEntity<CacheStatsDto> getPropertyCacheStats() {
+        return ResponseEntity.ok(this.exportService.getPropertyCacheStats());
+    }
+
     /**
      * Retrieves a paginated list of properties for a specific broker.
      * <p>
@@ -102,6 +214,37 @@ public class ExportController {
         return ResponseEntity.ok(this.exportService.getPropertiesShortInfoForBroker(officeId, brokerId, pageSize, pageNumber));
     }
 
+    /**
+     * Retrieves properties for a specific broker using cursor-based pagination.
+     * <p>
+     * This endpoint demonstrates:
+     * <ul>
+     *   <li>Keyset pagination with an opaque next-page token</li>
+     *   <li>Optional total count, so that clients only pay for it when they need it</li>
+     * </ul>
+     * <p>
+     * Response time stays the same no matter how deep the requested page is.
+     *
+     * @param officeId     ID of the office
+     * @param brokerId     ID of the broker whose properties to retrieve
+     * @param pageSize     Number of records per page (between 1 and 20)
+     * @param cursor       Token from the previous page, omitted for the first page
+     * @param includeTotal Whether the total number of properties should be returned
+     * @return Response entity containing a page of property DTOs and the next-page token
+     */
+    @GetMapping("/export/offices/{officeId}/brokers/{brokerId}/properties/keyset")
+    @Operation(summary = "Get properties for a specific broker with cursor pagination", description = "Retrieves a page of properties associated with a particular broker, ordered by city, using an opaque cursor instead of a page number")
+    @ApiResponse(content = @Content(schema = @Schema(implementation = CursorPageDto.class, description = "Page of properties with basic information and the next-page token"), mediaType = MediaType.APPLICATION_JSON_VALUE), responseCode = "200")
+    public ResponseEntity<CursorPageDto<PropertyDto>> getPropertiesShortInfoForBrokerKeyset(
+            @PathVariable UUID officeId,
+            @PathVariable UUID brokerId,
+            @RequestParam("pageSize") @Max(20) @Min(1) int pageSize,
+            @RequestParam(value = "cursor", required = false) String cursor,
+            @RequestParam(value = "includeTotal", defaultValue = "false") boolean includeTotal
+    ) {
+        return ResponseEntity.ok(this.exportService.getPropertiesShortInfoForBroker(officeId, brokerId, pageSize, cursor, includeTotal));
+    }
+
     /**
      * Retrieves all offices with their contact details.
      * <p>
@@ -110,15 +253,325 @@ public class ExportController {
      *   <li>Collection resource endpoint design</li>
      *   <li>Returning a list of resources</li>
      *   <li>Proper HTTP GET semantics for retrieving data</li>
+     *   <li>Conditional GET with strong ETags, answered with 304 without database access</li>
      * </ul>
      *
-     * @return Response entity containing a list of office DTOs
+     * @param webRequest Current request, used for conditional GET handling
+     * @return Response entity containing a list of office DTOs, or 304 if the client's copy is current
      */
     @GetMapping("/export/offices")
     @Operation(summary = "Get all offices", description = "Retrieves a list of all available real estate offices with their contact information and address details")
     @ApiResponse(content = @Content(schema = @Schema(implementation = OfficeDto.class, description = "List of offices with contact details and location information"), mediaType = MediaType.APPLICATION_JSON_VALUE), responseCode = "200")
-    public ResponseEntity<List<OfficeDto>> getAllOffices() {
+    public ResponseEntity<List<OfficeDto>> getAllOffices(WebRequest webRequest) {
+        if (webRequest.checkNotModified(this.exportService.getOfficesVersion())) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).build();
+        }
         return ResponseEntity.ok(this.exportService.getAllOffices());
     }
 
+    /**
+     * Streams all offices with their contact details.
+     * <p>
+     * Selected with {@code stream=true}. Offices are read from a database cursor and written to the
+     * response one by one, so memory usage doesn't grow with the number of offices and the first bytes
+     * are sent long before the last office is read.
+     * <p>
+     * The default format is NDJSON, one office per line; {@code format=json} writes a regular JSON array instead.
+     *
+     * @param format Output format, either {@code ndjson} or {@code json}
+     * @return Response entity with a body that is written asynchronously
+     */
+    @GetMapping(value = "/export/offices", params = "stream=true")
+    @Operation(summary = "Stream all offices", description = "Streams all available real estate offices as NDJSON or as a chunked JSON array")
+    @ApiResponse(content = @Content(schema = @Schema(implementation = OfficeDto.class, description = "Offices with contact details, one per line"), mediaType = APPLICATION_NDJSON_VALUE), responseCode = "200")
+    public ResponseEntity<StreamingResponseBody> streamAllOffices(
+            @RequestParam(value = "format", defaultValue = "ndjson") String format
+    ) {
+        return stream(OfficeDto.class, "json".equalsIgnoreCase(format), this.exportService::streamAllOffices);
+    }
+
+    /**
+     * Retrieves an office with all its brokers, including their degrees, emails and phone numbers.
+     * <p>
+     * The whole hierarchy is built with nested multisets in a single statement.
+     *
+     * @param officeId ID of the office to retrieve
+     * @return Response entity containing the office DTO with brokers
+     */
+    @GetMapping("/export/offices/{officeId}/full")
+    @Operation(summary = "Get office with all brokers", description = "Retrieves an office with its address, contacts and all of its brokers including degrees and contacts")
+    @ApiResponse(content = @Content(schema = @Schema(implementation = OfficeWithBrokersDto.class, description = "Office with its brokers"), mediaType = MediaType.APPLICATION_JSON_VALUE), responseCode = "200")
+    public ResponseEntity<OfficeWithBrokersDto> getOfficeWithBrokers(@PathVariable UUID officeId) {
+        return ResponseEntity.ok(this.exportService.getOfficeWithBrokers(officeId));
+    }
+
+    /**
+     * Streams offices with all their brokers, for bulk synchronization.
+     * <p>
+     * Offices are loaded in batches, one statement per batch, and written to the response as soon as
+     * a batch is loaded. Without {@code ids}, all offices are exported.
+     *
+     * @param officeIds IDs of the offices to export, optional
+     * @param format    Output format, either {@code ndjson} or {@code json}
+     * @return Response entity with a body that is written asynchronously
+     */
+    @GetMapping("/export/offices/full")
+    @Operation(summary = "Stream offices with all brokers", description = "Streams offices with their brokers as NDJSON or as a chunked JSON array, either the given offices or all of them")
+    @ApiResponse(content = @Content(schema = @Schema(implementation = OfficeWithBrokersDto.class, description = "Offices with their brokers, one per line"), mediaType = APPLICATION_NDJSON_VALUE), responseCode = "200")
+    public ResponseEntity<StreamingResponseBody> streamOfficesWithBrokers(
+            @RequestParam(value = "ids", required = false) List<UUID> officeIds,
+            @RequestParam(value = "format", defaultValue = "ndjson") String format
+    ) {
+        return stream(OfficeWithBrokersDto.class, "json".equalsIgnoreCase(format),
+                consumer -> this.exportService.streamOfficesWithBrokers(officeIds, consumer));
+    }
+
+    /**
+     * Searches properties across all offices with optional filters and cursor-based pagination.
+     * <p>
+     * This endpoint demonstrates:
+     * <ul>
+     *   <li>Optional filters composed into one statement, with no predicate for an absent filter</li>
+     *   <li>Keyset pagination over a selectable, index-backed sort order</li>
+     * </ul>
+     * <p>
+     * Price filters and sorting by price only consider properties with a public price.
+     *
+     * @param officeId        Only properties of this office, optional
+     * @param country         Only properties in this country, optional
+     * @param city            Only properties in this city, optional
+     * @param minPrice        Lowest public price, optional
+     * @param maxPrice        Highest public price, optional
+     * @param publicPriceOnly Whether only properties with a public price are listed
+     * @param hasImages       Only properties with ({@code true}) or without ({@code false}) images, optional
+     * @param sort            Sort order
+     * @param pageSize        Number of records per page (between 1 and 50)
+     * @param cursor          Token from the previous page, omitted for the first page
+     * @param includeTotal    Whether the total number of matching properties should be returned
+     * @return Response entity containing a page of properties and the next-page token
+     */
+    @GetMapping("/export/properties/search")
+    @Operation(summary = "Search properties", description = "Retrieves a page of properties matching optional filters, sorted by price, city or recency, using an opaque cursor")
+    @ApiResponse(content = @Content(schema = @Schema(implementation = CursorPageDto.class, description = "Page of properties and the next-page token"), mediaType = MediaType.APPLICATION_JSON_VALUE), responseCode = "200")
+    public ResponseEntity<CursorPageDto<PropertySummaryDto>> searchProperties(
+            @RequestParam(value = "officeId", required = false) UUID officeId,
+            @RequestParam(value = "country", required = false) String country,
+            @RequestParam(value = "city", required = false) String city,
+            @RequestParam(value = "minPrice", required = false) @Min(0) Integer minPrice,
+            @RequestParam(value = "maxPrice", required = false) @Min(0) Integer maxPrice,
+            @RequestParam(value = "publicPriceOnly", defaultValue = "false") boolean publicPriceOnly,
+            @RequestParam(value = "hasImages", required = false) Boolean hasImages,
+            @RequestParam(value = "sort", defaultValue = "NEWEST") PropertySearchSort sort,
+            @RequestParam(value = "pageSize", defaultValue = "20") @Max(50) @Min(1) int pageSize,
+            @RequestParam(value = "cursor", required = false) String cursor,
+            @RequestParam(value = "includeTotal", defaultValue = "false") boolean includeTotal
+    ) {
+        PropertySearchFilterDto filter = new PropertySearchFilterDto(officeId, country, city, minPrice, maxPrice, publicPriceOnly, hasImages);
+        return ResponseEntity.ok(this.exportService.searchProperties(filter, sort, pageSize, cursor, includeTotal));
+    }
+
+    /**
+     * Counts the properties matching the search filters by city, price band and office tag.
+     * <p>
+     * Takes the same filters as {@link #searchProperties}. All facets are computed by one statement
+     * with {@code GROUPING SETS}; the unfiltered facets are briefly cached.
+     *
+     * @param officeId        Only properties of this office
+     * @param country         Only properties in this country
+     * @param city            Only properties in this city
+     * @param minPrice        Only public prices of at least this amount
+     * @param maxPrice        Only public prices of at most this amount
+     * @param publicPriceOnly Whether only properties with a public price should be counted
+     * @param hasImages       Only properties with (true) or without (false) images
+     * @return Response entity containing the total and the counts per facet value
+     */
+    @GetMapping("/export/properties/search/facets")
+    @Operation(summary = "Get property search facets", description = "Counts the properties matching optional filters by city, price band and office tag in one query")
+    @ApiResponse(content = @Content(schema = @Schema(implementation = PropertyFacetsDto.class, description = "Total and counts per city, price band and office tag"), mediaType = MediaType.APPLICATION_JSON_VALUE), responseCode = "200")
+    public ResponseEntity<PropertyFacetsDto> getPropertyFacets(
+            @RequestParam(value = "officeId", required = false) UUID officeId,
+            @RequestParam(value = "country", required = false) String country,
+            @RequestParam(value = "city", required = false) String city,
+            @RequestParam(value = "minPrice", required = false) @Min(0) Integer minPrice,
+            @RequestParam(value = "maxPrice", required = false) @Min(0) Integer maxPrice,
+            @RequestParam(value = "publicPriceOnly", defaultValue = "false") boolean publicPriceOnly,
+            @RequestParam(value = "hasImages", required = false) Boolean hasImages
+    ) {
+        PropertySearchFilterDto filter = new PropertySearchFilterDto(officeId, country, city, minPrice, maxPrice, publicPriceOnly, hasImages);
+        return ResponseEntity.ok(this.exportService.getPropertyFacets(filter));
+    }
+
+    /**
+     * Finds properties within a radius around a point, for map search.
+     * <p>
+     * The database narrows the candidates down with a bounding box on the {@code gis (latitude, longitude)}
+     * index and only computes the exact haversine distance for those.
+     *
+     * @param latitude  Latitude of the center in degrees
+     * @param longitude Longitude of the center in degrees
+     * @param radiusKm  Radius in kilometers (at most 100)
+     * @param limit     Maximum number of properties to return (between 1 and 500)
+     * @return Response entity containing the properties, nearest first
+     */
+    @GetMapping("/export/properties/near")
+    @Operation(summary = "Find properties near a point", description = "Retrieves the properties within a radius around the given coordinates, nearest first, with their distance")
+    @ApiResponse(content = @Content(schema = @Schema(implementation = PropertyLocationDto.class, description = "Properties with coordinates and distance"), mediaType = MediaType.APPLICATION_JSON_VALUE), responseCode = "200")
+    public ResponseEntity<List<PropertyLocationDto>> findPropertiesNear(
+            @RequestParam("lat") @DecimalMin("-90") @DecimalMax("90") double latitude,
+            @RequestParam("lon") @DecimalMin("-180") @DecimalMax("180") double longitude,
+            @RequestParam("radiusKm") @DecimalMin(value = "0", inclusive = false) @DecimalMax("100") double radiusKm,
+            @RequestParam(value = "limit", defaultValue = "100") @Min(1) @Max(500) int limit
+    ) {
+        return ResponseEntity.ok(this.exportService.findPropertiesNear(latitude, longitude, radiusKm, limit));
+    }
+
+    /**
+     * Finds properties within a bounding box, e.g. the visible part of a map.
+     * <p>
+     * A box with {@code minLon} greater than {@code maxLon} crosses the antimeridian.
+     *
+     * @param minLatitude  Southern edge in degrees
+     * @param minLongitude Western edge in degrees
+     * @param maxLatitude  Northern edge in degrees
+     * @param maxLongitude Eastern edge in degrees
+     * @param limit        Maximum number of properties to return (between 1 and 500)
+     * @return Response entity containing the properties in the box
+     */
+    @GetMapping("/export/properties/within")
+    @Operation(summary = "Find properties in a bounding box", description = "Retrieves the properties whose coordinates lie within the given box")
+    @ApiResponse(content = @Content(schema = @Schema(implementation = PropertyLocationDto.class, description = "Properties with coordinates"), mediaType = MediaType.APPLICATION_JSON_VALUE), responseCode = "200")
+    public ResponseEntity<List<PropertyLocationDto>> findPropertiesWithin(
+            @RequestParam("minLat") @DecimalMin("-90") @DecimalMax("90") double minLatitude,
+            @RequestParam("minLon") @DecimalMin("-180") @DecimalMax("180") double minLongitude,
+            @RequestParam("maxLat") @DecimalMin("-90") @DecimalMax("90") double maxLatitude,
+            @RequestParam("maxLon") @DecimalMin("-180") @DecimalMax("180") double maxLongitude,
+            @RequestParam(value = "limit", defaultValue = "100") @Min(1) @Max(500) int limit
+    ) {
+        return ResponseEntity.ok(this.exportService.findPropertiesWithin(minLatitude, minLongitude, maxLatitude, maxLongitude, limit));
+    }
+
+    /**
+     * Aggregates the properties within a bounding box into map clusters for a zoom level.
+     * <p>
+     * The database groups the coordinates by grid cell and returns one row per non-empty cell,
+     * so the payload size depends on the viewport, not on the number of properties.
+     *
+     * @param minLatitude  Southern edge in degrees
+     * @param minLongitude Western edge in degrees
+     * @param maxLatitude  Northern edge in degrees
+     * @param maxLongitude Eastern edge in degrees
+     * @param zoom         Map zoom level (between 0 and 22)
+     * @return Response entity containing the clusters with count, centroid and price range
+     */
+    @GetMapping("/export/properties/clusters")
+    @Operation(summary = "Cluster properties for a map", description = "Aggregates the properties within the given box into grid clusters sized for the zoom level")
+    @ApiResponse(content = @Content(schema = @Schema(implementation = PropertyClusterDto.class, description = "Clusters with count, centroid and price range"), mediaType = MediaType.APPLICATION_JSON_VALUE), responseCode = "200")
+    public ResponseEntity<List<PropertyClusterDto>> clusterProperties(
+            @RequestParam("minLat") @DecimalMin("-90") @DecimalMax("90") double minLatitude,
+            @RequestParam("minLon") @DecimalMin("-180") @DecimalMax("180") double minLongitude,
+            @RequestParam("maxLat") @DecimalMin("-90") @DecimalMax("90") double maxLatitude,
+            @RequestParam("maxLon") @DecimalMin("-180") @DecimalMax("180") double maxLongitude,
+            @RequestParam("zoom") @Min(0) @Max(22) int zoom
+    ) {
+        return ResponseEntity.ok(this.exportService.clusterProperties(minLatitude, minLongitude, maxLatitude, maxLongitude, zoom));
+    }
+
+    /**
+     * Dumps the full property catalog, joined with address, coordinates, broker and office, as a CSV file.
+     * <p>
+     * The database formats the rows with {@code COPY ... TO STDOUT} and the bytes are piped to the response
+     * as they arrive, without mapping anything into Java objects. With {@code gzip=true} the file is
+     * compressed on the fly and served as {@code catalog.csv.gz}.
+     *
+     * @param gzip Whether to compress the file
+     * @return Response entity with a body that is written asynchronously
+     */
+    @GetMapping("/export/catalog")
+    @Operation(summary = "Export the full property catalog", description = "Streams all properties with their address, coordinates, broker and office as CSV, optionally gzip-compressed")
+    @ApiResponse(content = @Content(schema = @Schema(type = "string", format = "binary", description = "CSV file with a header line"), mediaType = TEXT_CSV_VALUE), responseCode = "200")
+    public ResponseEntity<StreamingResponseBody> exportCatalog(
+            @RequestParam(value = "gzip", defaultValue = "false") boolean gzip
+    ) {
+        StreamingResponseBody body = outputStream -> {
+            if (!gzip) {
+                this.exportService.exportCatalogCsv(outputStream);
+                return;
+            }
+            GZIPOutputStream compressed = new GZIPOutputStream(outputStream, 64 * 1024);
+            this.exportService.exportCatalogCsv(compressed);
+            // Writes the trailer; the servlet output stream itself is closed by the container
+            compressed.finish();
+        };
+
+        return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType(gzip ? APPLICATION_GZIP_VALUE : TEXT_CSV_VALUE))
+                .header(HttpHeaders.CONTENT_DISPOSITION, ContentDisposition.attachment()
+                        .filename(gzip ? "catalog.csv.gz" : "catalog.csv")
+                        .build()
+                        .toString())
+                .body(body);
+    }
+
+    /**
+     * Retrieves all offices with their contact details, rendered as JSON by the database.
+     * <p>
+     * Selected with {@code engine=database}. The bytes received from the database are copied straight
+     * to the response output stream, without creating DTOs, without a Jackson pass and without decoding
+     * the document into a string.
+     * Conditional GET works as for the Jackson endpoint; the ETag differs because the bytes do.
+     *
+     * @param webRequest Current request, used for conditional GET handling
+     * @param response   Servlet response the document is written to
+     */
+    @GetMapping(value = "/export/offices", params = "engine=database")
+    @Operation(summary = "Get all offices (database-rendered JSON)", description = "Retrieves a list of all available real estate offices as a JSON document built by the database")
+    @ApiResponse(content = @Content(schema = @Schema(implementation = OfficeDto.class, description = "List of offices with contact details and location information"), mediaType = MediaType.APPLICATION_JSON_VALUE), responseCode = "200")
+    public void getAllOfficesJson(WebRequest webRequest, HttpServletResponse response) {
+        if (webRequest.checkNotModified(this.exportService.getOfficesVersion() + DATABASE_ENGINE_ETAG_SUFFIX)) {
+            return;
+        }
+        response.setStatus(HttpServletResponse.SC_OK);
+        this.exportService.writeAllOfficesJson(json -> writeJson(response, json));
+    }
+
+    /**
+     * Builds a streaming response that writes each element as soon as the producer emits it.
+     * <p>
+     * Elements are written as NDJSON, one per line, or as a JSON array.
+     */
+    private <T> ResponseEntity<StreamingResponseBody> stream(Class<T> type, boolean asArray, Consumer<Consumer<T>> producer) {
+        // Flushing after every element would send a chunk per element; the servlet buffer flushes on its own
+        ObjectWriter writer = objectMapper.writerFor(type)
+                .without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE)
+                .withRootValueSeparator("\n");
+
+        StreamingResponseBody body = outputStream -> {
+            try (SequenceWriter sequence = asArray ? writer.writeValuesAsArray(outputStream) : writer.writeValues(outputStream)) {
+                producer.accept(element -> {
+                    try {
+                        sequence.write(element);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            }
+        };
+
+        return ResponseEntity.ok()
+                .contentType(asArray ? MediaType.APPLICATION_JSON : MediaType.parseMediaType(APPLICATION_NDJSON_VALUE))
+                .body(body);
+    }
+
+    /**
+     * Copies a database-rendered JSON document to the response, byte for byte.
+     */
+    private static void writeJson(HttpServletResponse response, InputStream json) {
+        response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        try {
+            json.transferTo(response.getOutputStream());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
 }
@@ -1,25 +1,43 @@
 package workshop_jooq.controllers;
 
+import com.fasterxml.jackson.databind.JsonNode;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.media.Content;
 import io.swagger.v3.oas.annotations.media.Schema;
 import io.swagger.v3.oas.annotations.responses.ApiResponse;
 import io.swagger.v3.oas.annotations.tags.Tag;
+import jakarta.validation.constraints.Size;
 import lombok.RequiredArgsConstructor;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.validation.annotation.Validated;
 import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PatchMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
+import workshop_jooq.dtos.BrokerBulkDeleteResultDto;
 import workshop_jooq.dtos.BrokerDto;
+import workshop_jooq.dtos.BrokerPurgeStatusDto;
+import workshop_jooq.dtos.BulkImportResultDto;
+import workshop_jooq.dtos.BulkLoadResultDto;
+import workshop_jooq.dtos.ImportOperationDto;
 import workshop_jooq.services.ImportService;
+import workshop_jooq.services.WriteBehindImporter;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.Optional;
 import java.util.UUID;
 
 /**
@@ -42,38 +60,156 @@ import java.util.UUID;
 @Tag(name = "Import", description = "Import API related to brokers operations")
 public class ImportController {
 
+    private static final String MERGE_PATCH_JSON_VALUE = "application/merge-patch+json";
+
     private final ImportService importService;
+    private final WriteBehindImporter writeBehindImporter;
 
     /**
      * Creates a new broker record.
+     * <p>
+     * A broker whose external ID is already known updates that broker instead, so a retried request
+     * is answered with HTTP 200 rather than 201. The office isn't part of the request: a new broker
+     * has none, and a matched broker keeps the office it has.
      *
      * @param brokerDto DTO containing the broker information to create
-     * @return Response entity with created broker and HTTP 201 status
+     * @return Response entity with created broker and HTTP 201 status, or HTTP 200 if an existing broker was matched,
+     * or HTTP 409 if its external ID belongs to a deleted broker that isn't purged yet
      */
     @PostMapping("/export/brokers")
-    @Operation(summary = "Create new broker", description = "Creates a new broker with the provided information")
+    @Operation(summary = "Create new broker", description = "Creates a new broker with the provided information; an already known external ID updates that broker instead")
     @ApiResponse(content = @Content(schema = @Schema(implementation = BrokerDto.class, description = "Created broker with generated ID"), mediaType = MediaType.APPLICATION_JSON_VALUE), responseCode = "201")
+    @ApiResponse(content = @Content(schema = @Schema(implementation = BrokerDto.class, description = "Existing broker matched by external ID"), mediaType = MediaType.APPLICATION_JSON_VALUE), responseCode = "200")
+    @ApiResponse(responseCode = "409", description = "The external ID belongs to a deleted broker that isn't purged yet; retry later")
     public ResponseEntity<BrokerDto> createBroker(@RequestBody BrokerDto brokerDto) {
-        return ResponseEntity.status(HttpStatus.CREATED).body(this.importService.createBroker(brokerDto));
+        BrokerDto created = this.importService.createBroker(brokerDto);
+        HttpStatus status = created.isMatchedExisting() ? HttpStatus.OK : HttpStatus.CREATED;
+        return ResponseEntity.status(status).eTag(versionTag(created)).body(created);
+    }
+
+    /**
+     * Accepts a broker create for asynchronous execution.
+     * <p>
+     * Selected with {@code async=true}. The broker is written in the background; its outcome
+     * can be polled at the URL in the {@code Location} header.
+     *
+     * @param brokerDto DTO containing the broker information to create
+     * @return Response entity with the queued operation and HTTP 202 status,
+     * or HTTP 429 with {@code Retry-After} if the queue is full
+     */
+    @PostMapping(value = "/export/brokers", params = "async=true")
+    @Operation(summary = "Create new broker asynchronously", description = "Queues a broker create and returns an operation ID to poll")
+    @ApiResponse(content = @Content(schema = @Schema(implementation = ImportOperationDto.class, description = "Queued operation"), mediaType = MediaType.APPLICATION_JSON_VALUE), responseCode = "202")
+    @ApiResponse(responseCode = "429", description = "Queue is full, retry after the delay in the Retry-After header")
+    public ResponseEntity<ImportOperationDto> createBrokerAsync(@RequestBody BrokerDto brokerDto) {
+        return accepted(this.writeBehindImporter.createBroker(brokerDto));
+    }
+
+    /**
+     * Creates many broker records from a JSON array.
+     * <p>
+     * The request body is read as a stream and never held in memory as a whole. Brokers are written in
+     * chunks, one transaction per chunk, and the response reports how many brokers each chunk stored.
+     *
+     * @param payload Request body containing a JSON array of brokers
+     * @return Response entity with the import results
+     * @throws IOException if the request body can't be read
+     */
+    @PostMapping(value = "/export/brokers/bulk", consumes = MediaType.APPLICATION_JSON_VALUE)
+    @Operation(summary = "Create brokers in bulk", description = "Creates brokers from a JSON array, written in chunks with one transaction per chunk")
+    @ApiResponse(content = @Content(schema = @Schema(implementation = BulkImportResultDto.class, description = "Totals and per-chunk success and failure counts"), mediaType = MediaType.APPLICATION_JSON_VALUE), responseCode = "200")
+    public ResponseEntity<BulkImportResultDto> createBrokers(InputStream payload) throws IOException {
+        return ResponseEntity.ok(this.importService.createBrokers(payload));
+    }
+
+    /**
+     * Loads a CSV feed into a table with PostgreSQL's {@code COPY}.
+     * <p>
+     * Supported tables are {@code gis}, {@code address}, {@code office}, {@code property} and {@code image};
+     * feeds have to be loaded in this order. The first line names the columns and must include {@code id}.
+     * Rows are inserted, or update the existing row with the same ID.
+     *
+     * @param table Name of the table to load
+     * @param csv   Request body containing the CSV feed
+     * @return Response entity with the number of staged and merged rows
+     * @throws IOException if the request body can't be read
+     */
+    @PostMapping(value = "/import/bulk/{table}", consumes = "text/csv")
+    @Operation(summary = "Bulk load a table", description = "Streams a CSV feed into a staging table with COPY and merges it into the table in one transaction")
+    @ApiResponse(content = @Content(schema = @Schema(implementation = BulkLoadResultDto.class, description = "Number of staged and merged rows"), mediaType = MediaType.APPLICATION_JSON_VALUE), responseCode = "200")
+    public ResponseEntity<BulkLoadResultDto> bulkLoad(@PathVariable String table, InputStream csv) throws IOException {
+        return ResponseEntity.ok(this.importService.bulkLoad(table, csv));
     }
 
     /**
      * Updates an existing broker record.
      * <p>
+     * With an {@code If-Match} header carrying the ETag of a previous response, the update is only
+     * applied if nobody else has changed the broker since; otherwise it fails fast with HTTP 412.
      *
      * @param brokerId  ID of the broker to update
+     * @param ifMatch   Optional ETag of the version the client has seen
      * @param brokerDto DTO containing the updated broker information
-     * @return Response entity with updated broker
+     * @return Response entity with updated broker and its new ETag
      */
     @PutMapping("/export/brokers/{brokerId}")
-    @Operation(summary = "Update existing broker", description = "Updates an existing broker's information")
+    @Operation(summary = "Update existing broker", description = "Updates an existing broker's information; with If-Match, only if the broker still has that version")
     @ApiResponse(content = @Content(schema = @Schema(implementation = BrokerDto.class, description = "Updated broker information"), mediaType = MediaType.APPLICATION_JSON_VALUE), responseCode = "200")
+    @ApiResponse(responseCode = "412", description = "The broker was changed since the version in If-Match")
     public ResponseEntity<BrokerDto> updateBroker(
             @PathVariable UUID brokerId,
+            @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch,
             @RequestBody BrokerDto brokerDto
     ) {
         brokerDto.setId(brokerId);
-        return ResponseEntity.ok(this.importService.updateBroker(brokerDto));
+        brokerDto.setVersion(expectedVersion(ifMatch));
+        BrokerDto updated = this.importService.updateBroker(brokerDto);
+        return ResponseEntity.ok().eTag(versionTag(updated)).body(updated);
+    }
+
+    /**
+     * Partially updates a broker record with a JSON Merge Patch.
+     *
+     * @param brokerId ID of the broker to patch
+     * @param ifMatch  Optional ETag of the version the client has seen, as for {@link #updateBroker(UUID, String, BrokerDto)}
+     * @param patch    JSON object with only the fields to change
+     * @return Response entity with the patched broker, its new ETag and HTTP 200 status,
+     * or HTTP 409 if the patched external ID belongs to another broker
+     */
+    @PatchMapping(value = "/export/brokers/{brokerId}", consumes = {MERGE_PATCH_JSON_VALUE, MediaType.APPLICATION_JSON_VALUE})
+    @Operation(summary = "Patch existing broker", description = "Updates only the fields and collections present in a JSON Merge Patch; null clears a field, arrays replace the collection")
+    @ApiResponse(content = @Content(schema = @Schema(implementation = BrokerDto.class, description = "Broker after the patch"), mediaType = MediaType.APPLICATION_JSON_VALUE), responseCode = "200")
+    @ApiResponse(responseCode = "412", description = "The broker was changed since the version in If-Match")
+    @ApiResponse(responseCode = "409", description = "The patched external ID belongs to another broker")
+    public ResponseEntity<BrokerDto> patchBroker(
+            @PathVariable UUID brokerId,
+            @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch,
+            @RequestBody JsonNode patch
+    ) {
+        BrokerDto patched = this.importService.patchBroker(brokerId, expectedVersion(ifMatch), patch);
+        return ResponseEntity.ok().eTag(versionTag(patched)).body(patched);
+    }
+
+    /**
+     * Accepts a broker update for asynchronous execution.
+     * <p>
+     * Selected with {@code async=true}; see {@link #createBrokerAsync(BrokerDto)}.
+     *
+     * @param brokerId  ID of the broker to update
+     * @param brokerDto DTO containing the updated broker information
+     * @return Response entity with the queued operation and HTTP 202 status,
+     * or HTTP 429 with {@code Retry-After} if the queue is full
+     */
+    @PutMapping(value = "/export/brokers/{brokerId}", params = "async=true")
+    @Operation(summary = "Update existing broker asynchronously", description = "Queues a broker update and returns an operation ID to poll")
+    @ApiResponse(content = @Content(schema = @Schema(implementation = ImportOperationDto.class, description = "Queued operation"), mediaType = MediaType.APPLICATION_JSON_VALUE), responseCode = "202")
+    @ApiResponse(responseCode = "429", description = "Queue is full, retry after the delay in the Retry-After header")
+    public ResponseEntity<ImportOperationDto> updateBrokerAsync(
+            @PathVariable UUID brokerId,
+            @RequestBody BrokerDto brokerDto
+    ) {
+        brokerDto.setId(brokerId);
+        return accepted(this.writeBehindImporter.updateBroker(brokerDto));
     }
 
     /**
@@ -83,10 +219,131 @@ public class ImportController {
      * @return Empty response with HTTP 204 status
      */
     @DeleteMapping("/export/brokers/{brokerId}")
-    @Operation(summary = "Delete broker", description = "Deletes a broker by ID")
+    @Operation(summary = "Delete broker", description = "Deletes a broker by ID; with soft delete enabled, its dependents are purged in the background")
     @ApiResponse(responseCode = "204", description = "Broker successfully deleted")
     public ResponseEntity<Void> deleteBroker(@PathVariable UUID brokerId) {
         this.importService.deleteBroker(brokerId);
         return ResponseEntity.noContent().build();
     }
+
+    /**
+     * Deletes many broker records at once.
+     * <p>
+     * Asynchronous writes accepted before the request are applied first, so none of them runs against a deleted broker.
+     *
+     * @param brokerIds IDs of the brokers to delete, between 1 and 1000; callers split larger sets into several requests
+     * @return Response entity with the deleted brokers and the affected rows per table
+     */
+    @PostMapping(value = "/export/brokers/bulk-delete", consumes = MediaType.APPLICATION_JSON_VALUE)
+    @Operation(summary = "Delete brokers in bulk", description = "Deletes up to 1000 brokers with the given IDs and their related records with one statement per table; unknown IDs are ignored")
+    @ApiResponse(content = @Content(schema = @Schema(implementation = BrokerBulkDeleteResultDto.class, description = "Deleted brokers and affected rows per table"), mediaType = MediaType.APPLICATION_JSON_VALUE), responseCode = "200")
+    @ApiResponse(responseCode = "503", description = "Queued asynchronous writes weren't applied in time, retry later")
+    public ResponseEntity<BrokerBulkDeleteResultDto> deleteBrokers(@RequestBody @Size(min = 1, max = 1000) List<UUID> brokerIds) {
+        this.writeBehindImporter.awaitAccepted();
+        return ResponseEntity.ok(this.importService.deleteBrokers(brokerIds));
+    }
+
+    /**
+     * Deletes all broker records of an office.
+     * <p>
+     * Only the brokers go: the office itself, its own emails and phone numbers and its properties are kept,
+     * the properties just lose their broker.
+     * <p>
+     * Asynchronous writes accepted before the request are applied first, see {@link #deleteBrokers(List)}.
+     *
+     * @param officeId ID of the office whose brokers are deleted
+     * @return Response entity with the deleted brokers and the affected rows per table
+     */
+    @DeleteMapping("/export/offices/{officeId}/brokers")
+    @Operation(summary = "Delete office brokers", description = "Deletes all brokers of an office and their related records with one statement per table; the office is kept")
+    @ApiResponse(content = @Content(schema = @Schema(implementation = BrokerBulkDeleteResultDto.class, description = "Deleted brokers and affected rows per table"), mediaType = MediaType.APPLICATION_JSON_VALUE), responseCode = "200")
+    @ApiResponse(responseCode = "503", description = "Queued asynchronous writes weren't applied in time, retry later")
+    public ResponseEntity<BrokerBulkDeleteResultDto> deleteOfficeBrokers(@PathVariable UUID officeId) {
+        this.writeBehindImporter.awaitAccepted();
+        return ResponseEntity.ok(this.importService.deleteOfficeBrokers(officeId));
+    }
+
+    /**
+     * Accepts a broker delete for asynchronous execution.
+     * <p>
+     * Selected with {@code async=true}; see {@link #createBrokerAsync(BrokerDto)}.
+     *
+     * @param brokerId ID of the broker to delete
+     * @return Response entity with the queued operation and HTTP 202 status,
+     * or HTTP 429 with {@code Retry-After} if the queue is full
+     */
+    @DeleteMapping(value = "/export/brokers/{brokerId}", params = "async=true")
+    @Operation(summary = "Delete broker asynchronously", description = "Queues a broker delete and returns an operation ID to poll")
+    @ApiResponse(content = @Content(schema = @Schema(implementation = ImportOperationDto.class, description = "Queued operation"), mediaType = MediaType.APPLICATION_JSON_VALUE), responseCode = "202")
+    @ApiResponse(responseCode = "429", description = "Queue is full, retry after the delay in the Retry-After header")
+    public ResponseEntity<ImportOperationDto> deleteBrokerAsync(@PathVariable UUID brokerId) {
+        return accepted(this.writeBehindImporter.deleteBroker(brokerId));
+    }
+
+    /**
+     * Retrieves the state of an asynchronous broker write.
+     *
+     * @param operationId ID returned when the write was accepted
+     * @return Response entity with the operation, or HTTP 404 if it's unknown or its outcome has expired
+     */
+    @GetMapping("/import/operations/{operationId}")
+    @Operation(summary = "Get asynchronous operation", description = "Retrieves the status and outcome of a queued broker write")
+    @ApiResponse(content = @Content(schema = @Schema(implementation = ImportOperationDto.class, description = "Operation status"), mediaType = MediaType.APPLICATION_JSON_VALUE), responseCode = "200")
+    public ResponseEntity<ImportOperationDto> getOperation(@PathVariable UUID operationId) {
+        return ResponseEntity.of(this.writeBehindImporter.getOperation(operationId));
+    }
+
+    /**
+     * Retrieves the progress of the background purge of soft-deleted brokers.
+     *
+     * @return Response entity with the purge status and HTTP 200 status
+     */
+    @GetMapping("/import/brokers/purge")
+    @Operation(summary = "Get broker purge status", description = "Retrieves the number of soft-deleted brokers waiting for their purge and the rows purged so far")
+    @ApiResponse(content = @Content(schema = @Schema(implementation = BrokerPurgeStatusDto.class, description = "Purge status"), mediaType = MediaType.APPLICATION_JSON_VALUE), responseCode = "200")
+    public ResponseEntity<BrokerPurgeStatusDto> getPurgeStatus() {
+        return ResponseEntity.ok(this.importService.getPurgeStatus());
+    }
+
+    /**
+     * Strong ETag of a stored broker version.
+     */
+    private static String versionTag(BrokerDto broker) {
+        return "\"" + broker.getVersion() + "\"";
+    }
+
+    /**
+     * Reads the expected broker version from an {@code If-Match} header.
+     * No header or {@code *} means any version; a tag that can't be a broker version never matches.
+     */
+    private static Long expectedVersion(String ifMatch) {
+        if (ifMatch == null || ifMatch.isBlank() || ifMatch.trim().equals("*")) {
+            return null;
+        }
+        String tag = ifMatch.trim();
+        if (tag.length() > 2 && tag.startsWith("\"") && tag.endsWith("\"")) {
+            try {
+                return Long.parseLong(tag.substring(1, tag.length() - 1));
+            } catch (NumberFormatException e) {
+                // Not one of our tags, handled below
+            }
+        }
+        throw new ResponseStatusException(HttpStatus.PRECONDITION_FAILED, "If-Match doesn't match the broker version: " + ifMatch);
+    }
+
+    /**
+     * Answers an accepted operation with 202 and its status URL, a rejected one with 429.
+     */
+    private ResponseEntity<ImportOperationDto> accepted(Optional<ImportOperationDto> operation) {
+        return operation
+                .map(accepted -> ResponseEntity.accepted()
+                        .location(ServletUriComponentsBuilder.fromCurrentContextPath()
+                                .path("/api/v1/import/operations/{operationId}")
+                                .buildAndExpand(accepted.getId())
+                                .toUri())
+                        .body(accepted))
+                .orElseGet(() -> ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                        .header(HttpHeaders.RETRY_AFTER, Long.toString(this.writeBehindImporter.getRetryAfterSeconds()))
+                        .build());
+    }
 }
@@ -0,0 +1,16 @@
+package workshop_jooq.dtos;
+
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Record-based Data Transfer Object for the outcome of a bulk broker delete.
+ * <p>
+ * {@code brokerIds} are the deleted brokers; requested IDs that didn't exist are missing from the list.
+ * {@code officeIds} are the offices whose exports changed: the offices of the brokers and of their properties. The counters are the rows affected in each table:
+ * properties lose their broker, emails, phone numbers and degrees are deleted with it.
+ */
+public record BrokerBulkDeleteResultDto
+        (List<UUID> brokerIds, List<UUID> officeIds, int brokersDeleted, int propertiesDetached,
+         int emailsDeleted, int phoneNumbersDeleted, int degreesDeleted) {
+}
@@ -1,6 +1,8 @@
 package workshop_jooq.dtos;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
 import lombok.Getter;
 import lombok.Setter;
 import lombok.experimental.FieldNameConstants;
@@ -19,8 +21,27 @@ public class BrokerDto {
     private List<EmailDto> emails;
     private List<PhoneNumberDto> phoneNumbers;
 
+    /**
+     * ID of the broker in the upstream system; imports with the same external ID update the same broker.
+     */
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private String externalId;
+
     @JsonIgnore
     private UUID id;
     @JsonIgnore
     private UUID officeId;
+
+    /**
+     * Set by creates: whether the external ID matched an existing broker, which was updated instead of creating one.
+     */
+    @JsonIgnore
+    private boolean matchedExisting;
+
+    /**
+     * Version of the stored broker, also sent as its ETag; on updates, the version the client expects, if any.
+     * Read-only in JSON: the expected version of an update comes from {@code If-Match}, never from the body.
+     */
+    @JsonProperty(access = JsonProperty.Access.READ_ONLY)
+    private Long version;
 }
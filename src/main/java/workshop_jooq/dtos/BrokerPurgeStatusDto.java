@@ -0,0 +1,17 @@
+package workshop_jooq.dtos;
+
+import java.time.OffsetDateTime;
+import java.util.UUID;
+
+/**
+ * Record-based Data Transfer Object for the progress of the background broker purge.
+ * <p>
+ * {@code pendingBrokers} is the number of soft-deleted brokers not purged yet, including the current one.
+ * The other counters are cumulative since application start; {@code lastError} is the message of the last
+ * failed chunk, if any.
+ */
+public record BrokerPurgeStatusDto
+        (int pendingBrokers, UUID currentBrokerId, long brokersPurged, long propertiesDetached,
+         long emailsDeleted, long phoneNumbersDeleted, long degreesDeleted,
+         OffsetDateTime lastPurgedAt, String lastError) {
+}
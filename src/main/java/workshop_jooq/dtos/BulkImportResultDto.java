@@ -0,0 +1,26 @@
+package workshop_jooq.dtos;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.experimental.FieldNameConstants;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Data Transfer Object for the outcome of a bulk import.
+ * <p>
+ * Contains the totals and the result of every chunk. {@code error} is set when the payload could not be
+ * read to the end; chunks committed before that point stay committed.
+ */
+@Getter
+@Setter
+@FieldNameConstants
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class BulkImportResultDto {
+    private int succeeded;
+    private int failed;
+    private List<ChunkResultDto> chunks = new ArrayList<>();
+    private String error;
+}
@@ -0,0 +1,11 @@
+package workshop_jooq.dtos;
+
+/**
+ * Record-based Data Transfer Object for the outcome of a COPY-based bulk load.
+ * <p>
+ * {@code staged} is the number of CSV rows copied into the staging table; {@code merged} is the number
+ * of rows inserted or updated in the target table. They differ when the feed repeats an ID.
+ */
+public record BulkLoadResultDto
+        (String table, long staged, int merged) {
+}
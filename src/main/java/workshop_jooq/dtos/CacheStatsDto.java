@@ -0,0 +1,10 @@
+package workshop_jooq.dtos;
+
+/**
+ * Record-based Data Transfer Object for cache statistics.
+ * <p>
+ * Counters are cumulative since application start; {@code size} is the current number of entries.
+ */
+public record CacheStatsDto
+        (long hitCount, long missCount, long evictionCount, double hitRate, long size) {
+}
@@ -0,0 +1,11 @@
+package workshop_jooq.dtos;
+
+/**
+ * Record-based Data Transfer Object for the outcome of one chunk of a bulk import.
+ * <p>
+ * A chunk is written in its own transaction, so it either succeeds or fails as a whole;
+ * {@code error} is only set for a failed chunk.
+ */
+public record ChunkResultDto
+        (int chunk, int succeeded, int failed, String error) {
+}
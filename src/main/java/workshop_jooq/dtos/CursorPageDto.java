@@ -0,0 +1,24 @@
+package workshop_jooq.dtos;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.experimental.FieldNameConstants;
+
+import java.util.List;
+
+/**
+ * Data Transfer Object for one page of a keyset (cursor-based) listing.
+ * <p>
+ * {@code nextCursor} is an opaque token to pass back for the following page and is absent on the last page.
+ * {@code totalElements} is only present when the total count was explicitly requested.
+ */
+@Getter
+@Setter
+@FieldNameConstants
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class CursorPageDto<T> {
+    private List<T> content;
+    private String nextCursor;
+    private Long totalElements;
+}
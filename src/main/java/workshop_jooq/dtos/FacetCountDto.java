@@ -0,0 +1,8 @@
+package workshop_jooq.dtos;
+
+/**
+ * Record-based Data Transfer Object for one value of a search facet and the number of properties that have it.
+ */
+public record FacetCountDto
+        (String value, long count) {
+}
@@ -0,0 +1,31 @@
+package workshop_jooq.dtos;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.experimental.FieldNameConstants;
+import workshop_jooq.enam.ImportOperationStatus;
+import workshop_jooq.enam.ImportOperationType;
+
+import java.time.OffsetDateTime;
+import java.util.UUID;
+
+/**
+ * Data Transfer Object for a broker write accepted by the asynchronous import mode.
+ * <p>
+ * {@code brokerId} is known up front for updates and deletes, and once a create has succeeded.
+ * {@code error} is only set for a failed operation.
+ */
+@Getter
+@Setter
+@FieldNameConstants
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class ImportOperationDto {
+    private UUID id;
+    private ImportOperationType type;
+    private ImportOperationStatus status;
+    private UUID brokerId;
+    private String error;
+    private OffsetDateTime acceptedAt;
+    private OffsetDateTime completedAt;
+}
@@ -0,0 +1,14 @@
+package workshop_jooq.dtos;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+/**
+ * Record-based Data Transfer Object for a price band of the search facets.
+ * <p>
+ * {@code fromPrice} is inclusive and {@code toPrice} is exclusive; the lowest band has no
+ * {@code fromPrice} and the highest band has no {@code toPrice}.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public record PriceBandCountDto
+        (Integer fromPrice, Integer toPrice, long count) {
+}
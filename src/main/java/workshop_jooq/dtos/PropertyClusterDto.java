@@ -0,0 +1,15 @@
+package workshop_jooq.dtos;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+/**
+ * Record-based Data Transfer Object for a cluster of properties on a map.
+ * <p>
+ * {@code latitude} and {@code longitude} are the centroid of the clustered properties, not the center
+ * of the grid cell, so a marker sits where the properties are. The price range only covers public
+ * prices and is absent if none of the properties has one.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public record PropertyClusterDto
+        (int count, double latitude, double longitude, Integer minPrice, Integer maxPrice) {
+}
@@ -0,0 +1,15 @@
+package workshop_jooq.dtos;
+
+import java.util.List;
+
+/**
+ * Record-based Data Transfer Object for the facet counts of a property search.
+ * <p>
+ * {@code total} is the number of matching properties. Cities and office tags are listed most frequent
+ * first and may be truncated; properties without a city or with an office without tags aren't counted
+ * there. Price bands only count public prices, so their sum can be less than the total, and a property
+ * is counted once for every tag of its office.
+ */
+public record PropertyFacetsDto
+        (long total, List<FacetCountDto> cities, List<PriceBandCountDto> priceBands, List<FacetCountDto> officeTags) {
+}
@@ -0,0 +1,18 @@
+package workshop_jooq.dtos;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import java.util.UUID;
+
+/**
+ * Record-based Data Transfer Object for a property found by a map search.
+ * <p>
+ * It carries just enough to place a marker; the full details are available by office and property ID.
+ * {@code price} is absent for properties without a public price, {@code distanceKm} is only present
+ * for radius searches and is the great-circle distance from the search center.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public record PropertyLocationDto
+        (UUID propertyId, UUID officeId, Integer price, String city, String street, Integer number,
+         double latitude, double longitude, Double distanceKm) {
+}
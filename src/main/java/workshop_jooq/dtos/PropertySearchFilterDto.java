@@ -0,0 +1,15 @@
+package workshop_jooq.dtos;
+
+import java.util.UUID;
+
+/**
+ * Record-based Data Transfer Object for the filters of the property search.
+ * <p>
+ * Every filter is optional; a null value doesn't restrict the result. A price range only matches
+ * properties with a public price, so that hidden prices can't be found out by searching.
+ * {@code hasImages} selects properties with ({@code true}) or without ({@code false}) images.
+ */
+public record PropertySearchFilterDto
+        (UUID officeId, String country, String city, Integer minPrice, Integer maxPrice,
+         boolean publicPriceOnly, Boolean hasImages) {
+}
@@ -0,0 +1,18 @@
+package workshop_jooq.dtos;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import java.time.OffsetDateTime;
+import java.util.UUID;
+
+/**
+ * Record-based Data Transfer Object for a property in a search result.
+ * <p>
+ * {@code price} is absent for properties without a public price; the full details are available
+ * by office and property ID.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public record PropertySummaryDto
+        (UUID propertyId, UUID officeId, Integer price, String country, String city, String street,
+         Integer number, OffsetDateTime createdAt) {
+}
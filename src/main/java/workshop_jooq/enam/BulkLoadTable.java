@@ -0,0 +1,47 @@
+package workshop_jooq.enam;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import org.jooq.Table;
+
+import java.util.Locale;
+
+import static jooq.generated.tables.Address.ADDRESS;
+import static jooq.generated.tables.Gis.GIS;
+import static jooq.generated.tables.Image.IMAGE;
+import static jooq.generated.tables.Office.OFFICE;
+import static jooq.generated.tables.Property.PROPERTY;
+
+/**
+ * Tables that can be filled by the COPY-based bulk loader.
+ * <p>
+ * Constants are declared in foreign key order: a feed has to be loaded in this order,
+ * so that every referenced row already exists when its referencing rows are merged.
+ */
+@Getter
+@RequiredArgsConstructor
+public enum BulkLoadTable {
+    GIS_COORDINATES(GIS),
+    ADDRESSES(ADDRESS),
+    OFFICES(OFFICE),
+    PROPERTIES(PROPERTY),
+    IMAGES(IMAGE);
+
+    private final Table<?> table;
+
+    /**
+     * Resolves a table by its database name, e.g. {@code office}.
+     *
+     * @param name Table name, case-insensitive
+     * @return The matching constant
+     * @throws IllegalArgumentException if the table can't be bulk loaded
+     */
+    public static BulkLoadTable fromTableName(String name) {
+        for (BulkLoadTable value : values()) {
+            if (value.table.getName().equals(name.toLowerCase(Locale.ROOT))) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Table " + name + " can't be bulk loaded");
+    }
+}
@@ -0,0 +1,7 @@
+package workshop_jooq.enam;
+
+public enum ImportOperationStatus {
+    QUEUED,
+    SUCCEEDED,
+    FAILED
+}
@@ -0,0 +1,7 @@
+package workshop_jooq.enam;
+
+public enum ImportOperationType {
+    CREATE,
+    UPDATE,
+    DELETE
+}
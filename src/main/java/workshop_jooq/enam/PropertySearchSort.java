@@ -0,0 +1,13 @@
+package workshop_jooq.enam;
+
+/**
+ * Sort orders of the property search. Every order ends with the property ID, so it's unique
+ * and can be used for keyset pagination. Sorting by price only lists properties with a public price.
+ * All orders except {@link #CITY} are read from an index; sorting by city sorts all matching properties.
+ */
+public enum PropertySearchSort {
+    PRICE_ASC,
+    PRICE_DESC,
+    CITY,
+    NEWEST
+}
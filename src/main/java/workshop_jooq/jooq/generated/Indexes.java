@@ -7,6 +7,7 @@ package jooq.generated;
 import jooq.generated.tables.Address;
 import jooq.generated.tables.Broker;
 import jooq.generated.tables.Email;
+import jooq.generated.tables.Gis;
 import jooq.generated.tables.Image;
 import jooq.generated.tables.PhoneNumber;
 import jooq.generated.tables.Property;
@@ -28,13 +29,21 @@ public class Indexes {
     // -------------------------------------------------------------------------
 
     public static final Index IDX_ADDRESS_GIS_ID = Internal.createIndex(DSL.name("idx_address_gis_id"), Address.ADDRESS, new OrderField[] { Address.ADDRESS.GIS_ID }, false);
+    public static final Index IDX_ADDRESS_CITY = Internal.createIndex(DSL.name("idx_address_city"), Address.ADDRESS, new OrderField[] { Address.ADDRESS.CITY }, false);
+    public static final Index IDX_ADDRESS_COUNTRY_CITY = Internal.createIndex(DSL.name("idx_address_country_city"), Address.ADDRESS, new OrderField[] { Address.ADDRESS.COUNTRY, Address.ADDRESS.CITY }, false);
+    public static final Index IDX_BROKER_DELETED_AT = Internal.createIndex(DSL.name("idx_broker_deleted_at"), Broker.BROKER, new OrderField[] { Broker.BROKER.DELETED_AT }, false);
     public static final Index IDX_BROKER_OFFICE_ID = Internal.createIndex(DSL.name("idx_broker_office_id"), Broker.BROKER, new OrderField[] { Broker.BROKER.OFFICE_ID }, false);
     public static final Index IDX_EMAIL_BROKER_ID = Internal.createIndex(DSL.name("idx_email_broker_id"), Email.EMAIL, new OrderField[] { Email.EMAIL.BROKER_ID }, false);
     public static final Index IDX_EMAIL_OFFICE_ID = Internal.createIndex(DSL.name("idx_email_office_id"), Email.EMAIL, new OrderField[] { Email.EMAIL.OFFICE_ID }, false);
+    public static final Index IDX_GIS_LATITUDE_LONGITUDE = Internal.createIndex(DSL.name("idx_gis_latitude_longitude"), Gis.GIS, new OrderField[] { Gis.GIS.LATITUDE, Gis.GIS.LONGITUDE }, false);
     public static final Index IDX_PHONE_BROKER_ID = Internal.createIndex(DSL.name("idx_phone_broker_id"), PhoneNumber.PHONE_NUMBER, new OrderField[] { PhoneNumber.PHONE_NUMBER.BROKER_ID }, false);
     public static final Index IDX_PHONE_OFFICE_ID = Internal.createIndex(DSL.name("idx_phone_office_id"), PhoneNumber.PHONE_NUMBER, new OrderField[] { PhoneNumber.PHONE_NUMBER.OFFICE_ID }, false);
     public static final Index IDX_PROPERTY_ADDRESS_ID = Internal.createIndex(DSL.name("idx_property_address_id"), Property.PROPERTY, new OrderField[] { Property.PROPERTY.ADDRESS_ID }, false);
     public static final Index IDX_PROPERTY_BROKER_ID = Internal.createIndex(DSL.name("idx_property_broker_id"), Property.PROPERTY, new OrderField[] { Property.PROPERTY.BROKER_ID }, false);
+    public static final Index IDX_PROPERTY_CREATED_AT = Internal.createIndex(DSL.name("idx_property_created_at"), Property.PROPERTY, new OrderField[] { Property.PROPERTY.CREATED_AT.desc(), Property.PROPERTY.ID.desc() }, false);
     public static final Index IDX_PROPERTY_IMAGE_PROPERTY_ID = Internal.createIndex(DSL.name("idx_property_image_property_id"), Image.IMAGE, new OrderField[] { Image.IMAGE.PROPERTY_ID }, false);
+    public static final Index IDX_PROPERTY_OFFICE_CREATED_AT = Internal.createIndex(DSL.name("idx_property_office_created_at"), Property.PROPERTY, new OrderField[] { Property.PROPERTY.OFFICE_ID, Property.PROPERTY.CREATED_AT.desc(), Property.PROPERTY.ID.desc() }, false);
     public static final Index IDX_PROPERTY_OFFICE_ID = Internal.createIndex(DSL.name("idx_property_office_id"), Property.PROPERTY, new OrderField[] { Property.PROPERTY.OFFICE_ID }, false);
+    public static final Index IDX_PROPERTY_OFFICE_PUBLIC_PRICE = Internal.createIndex(DSL.name("idx_property_office_public_price"), Property.PROPERTY, new OrderField[] { Property.PROPERTY.OFFICE_ID, Property.PROPERTY.PRICE, Property.PROPERTY.ID }, false);
+    public static final Index IDX_PROPERTY_PUBLIC_PRICE = Internal.createIndex(DSL.name("idx_property_public_price"), Property.PROPERTY, new OrderField[] { Property.PROPERTY.PRICE, Property.PROPERTY.ID }, false);
 }
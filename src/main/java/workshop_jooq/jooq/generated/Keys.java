@@ -44,6 +44,7 @@ public class Keys {
     // -------------------------------------------------------------------------
 
     public static final UniqueKey<AddressRecord> ADDRESS_PKEY = Internal.createUniqueKey(Address.ADDRESS, DSL.name("address_pkey"), new TableField[] { Address.ADDRESS.ID }, true);
+    public static final UniqueKey<BrokerRecord> BROKER_EXTERNAL_ID_KEY = Internal.createUniqueKey(Broker.BROKER, DSL.name("broker_external_id_key"), new TableField[] { Broker.BROKER.EXTERNAL_ID }, true);
     public static final UniqueKey<BrokerRecord> BROKER_PKEY = Internal.createUniqueKey(Broker.BROKER, DSL.name("broker_pkey"), new TableField[] { Broker.BROKER.ID }, true);
     public static final UniqueKey<BrokerDegreeRecord> BROKER_DEGREE_PKEY = Internal.createUniqueKey(BrokerDegree.BROKER_DEGREE, DSL.name("broker_degree_pkey"), new TableField[] { BrokerDegree.BROKER_DEGREE.BROKER_ID, BrokerDegree.BROKER_DEGREE.DEGREE_NAME }, true);
     public static final UniqueKey<DegreeBeforeRecord> DEGREE_BEFORE_PKEY = Internal.createUniqueKey(DegreeBefore.DEGREE_BEFORE, DSL.name("degree_before_pkey"), new TableField[] { DegreeBefore.DEGREE_BEFORE.NAME }, true);
@@ -166,7 +166,7 @@ public class Address extends TableImpl<AddressRecord> {
 
     @Override
     public List<Index> getIndexes() {
-        return Arrays.asList(Indexes.IDX_ADDRESS_GIS_ID);
+        return Arrays.asList(Indexes.IDX_ADDRESS_CITY, Indexes.IDX_ADDRESS_COUNTRY_CITY, Indexes.IDX_ADDRESS_GIS_ID);
     }
 
     @Override
@@ -90,6 +90,21 @@ public class Broker extends TableImpl<BrokerRecord> {
      */
     public final TableField<BrokerRecord, Boolean> IS_MLS = createField(DSL.name("is_mls"), SQLDataType.BOOLEAN.defaultValue(DSL.field(DSL.raw("false"), SQLDataType.BOOLEAN)), this, "");
 
+    /**
+     * The column <code>public.broker.external_id</code>.
+     */
+    public final TableField<BrokerRecord, String> EXTERNAL_ID = createField(DSL.name("external_id"), SQLDataType.VARCHAR(100), this, "");
+
+    /**
+     * The column <code>public.broker.deleted_at</code>.
+     */
+    public final TableField<BrokerRecord, OffsetDateTime> DELETED_AT = createField(DSL.name("deleted_at"), SQLDataType.TIMESTAMPWITHTIMEZONE(6), this, "");
+
+    /**
+     * The column <code>public.broker.version</code>.
+     */
+    public final TableField<BrokerRecord, Long> VERSION = createField(DSL.name("version"), SQLDataType.BIGINT.nullable(false).defaultValue(DSL.field(DSL.raw("0"), SQLDataType.BIGINT)), this, "");
+
     /**
      * The column <code>public.broker.created_at</code>.
      */
@@ -164,7 +179,7 @@ public class Broker extends TableImpl<BrokerRecord> {
 
     @Override
     public List<Index> getIndexes() {
-        return Arrays.asList(Indexes.IDX_BROKER_OFFICE_ID);
+        return Arrays.asList(Indexes.IDX_BROKER_DELETED_AT, Indexes.IDX_BROKER_OFFICE_ID);
     }
 
     @Override
@@ -172,6 +187,11 @@ public class Broker extends TableImpl<BrokerRecord> {
         return Keys.BROKER_PKEY;
     }
 
+    @Override
+    public List<UniqueKey<BrokerRecord>> getUniqueKeys() {
+        return Arrays.asList(Keys.BROKER_EXTERNAL_ID_KEY);
+    }
+
     @Override
     public List<ForeignKey<BrokerRecord, ?>> getReferences() {
         return Arrays.asList(Keys.BROKER__BROKER_OFFICE_ID_FKEY);
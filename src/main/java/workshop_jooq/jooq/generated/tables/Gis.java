@@ -5,9 +5,12 @@ package jooq.generated.tables;
 
 
 import java.time.OffsetDateTime;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.List;
 import java.util.UUID;
 
+import jooq.generated.Indexes;
 import jooq.generated.Keys;
 import jooq.generated.Public;
 import jooq.generated.tables.Address.AddressPath;
@@ -16,6 +19,7 @@ import jooq.generated.tables.records.GisRecord;
 import org.jooq.Condition;
 import org.jooq.Field;
 import org.jooq.ForeignKey;
+import org.jooq.Index;
 import org.jooq.InverseForeignKey;
 import org.jooq.Name;
 import org.jooq.Path;
@@ -143,6 +147,11 @@ public class Gis extends TableImpl<GisRecord> {
         return aliased() ? null : Public.PUBLIC;
     }
 
+    @Override
+    public List<Index> getIndexes() {
+        return Arrays.asList(Indexes.IDX_GIS_LATITUDE_LONGITUDE);
+    }
+
     @Override
     public UniqueKey<GisRecord> getPrimaryKey() {
         return Keys.GIS_PKEY;
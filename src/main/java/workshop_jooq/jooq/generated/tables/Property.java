@@ -167,7 +167,7 @@ public class Property extends TableImpl<PropertyRecord> {
 
     @Override
     public List<Index> getIndexes() {
-        return Arrays.asList(Indexes.IDX_PROPERTY_ADDRESS_ID, Indexes.IDX_PROPERTY_BROKER_ID, Indexes.IDX_PROPERTY_OFFICE_ID);
+        return Arrays.asList(Indexes.IDX_PROPERTY_ADDRESS_ID, Indexes.IDX_PROPERTY_BROKER_ID, Indexes.IDX_PROPERTY_CREATED_AT, Indexes.IDX_PROPERTY_OFFICE_CREATED_AT, Indexes.IDX_PROPERTY_OFFICE_ID, Indexes.IDX_PROPERTY_OFFICE_PUBLIC_PRICE, Indexes.IDX_PROPERTY_PUBLIC_PRICE);
     }
 
     @Override
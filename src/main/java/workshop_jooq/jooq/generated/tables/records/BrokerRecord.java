@@ -91,18 +91,60 @@ public class BrokerRecord extends UpdatableRecordImpl<BrokerRecord> {
         return (Boolean) get(4);
     }
 
+    /**
+     * Setter for <code>public.broker.external_id</code>.
+     */
+    public void setExternalId(String value) {
+        set(5, value);
+    }
+
+    /**
+     * Getter for <code>public.broker.external_id</code>.
+     */
+    public String getExternalId() {
+        return (String) get(5);
+    }
+
+    /**
+     * Setter for <code>public.broker.deleted_at</code>.
+     */
+    public void setDeletedAt(OffsetDateTime value) {
+        set(6, value);
+    }
+
+    /**
+     * Getter for <code>public.broker.deleted_at</code>.
+     */
+    public OffsetDateTime getDeletedAt() {
+        return (OffsetDateTime) get(6);
+    }
+
+    /**
+     * Setter for <code>public.broker.version</code>.
+     */
+    public void setVersion(Long value) {
+        set(7, value);
+    }
+
+    /**
+     * Getter for <code>public.broker.version</code>.
+     */
+    public Long getVersion() {
+        return (Long) get(7);
+    }
+
     /**
      * Setter for <code>public.broker.created_at</code>.
      */
     public void setCreatedAt(OffsetDateTime value) {
-        set(5, value);
+        set(8, value);
     }
 
     /**
      * Getter for <code>public.broker.created_at</code>.
      */
     public OffsetDateTime getCreatedAt() {
-        return (OffsetDateTime) get(5);
+        return (OffsetDateTime) get(8);
     }
 
     // -------------------------------------------------------------------------
@@ -128,7 +170,7 @@ public class BrokerRecord extends UpdatableRecordImpl<BrokerRecord> {
     /**
      * Create a detached, initialised BrokerRecord
      */
-    public BrokerRecord(UUID id, String firstName, String lastName, UUID officeId, Boolean isMls, OffsetDateTime createdAt) {
+    public BrokerRecord(UUID id, String firstName, String lastName, UUID officeId, Boolean isMls, String externalId, OffsetDateTime deletedAt, Long version, OffsetDateTime createdAt) {
         super(Broker.BROKER);
 
         setId(id);
@@ -136,6 +178,9 @@ public class BrokerRecord extends UpdatableRecordImpl<BrokerRecord> {
         setLastName(lastName);
         setOfficeId(officeId);
         setIsMls(isMls);
+        setExternalId(externalId);
+        setDeletedAt(deletedAt);
+        setVersion(version);
         setCreatedAt(createdAt);
         resetChangedOnNotNull();
     }
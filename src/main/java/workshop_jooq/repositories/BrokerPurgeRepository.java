@@ -0,0 +1,141 @@
+package workshop_jooq.repositories;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.jooq.DSLContext;
+import org.jooq.impl.DSL;
+import org.springframework.stereotype.Repository;
+
+import java.util.Optional;
+import java.util.UUID;
+
+import static jooq.generated.tables.Broker.BROKER;
+import static jooq.generated.tables.BrokerDegree.BROKER_DEGREE;
+import static jooq.generated.tables.Email.EMAIL;
+import static jooq.generated.tables.PhoneNumber.PHONE_NUMBER;
+import static jooq.generated.tables.Property.PROPERTY;
+
+/**
+ * Repository for purging soft-deleted brokers in bounded chunks.
+ * <p>
+ * This class demonstrates:
+ * <ul>
+ *   <li>Chunked {@code UPDATE} and {@code DELETE} with a {@code LIMIT}ed key subquery</li>
+ *   <li>Short statements that each commit on their own, instead of one long cascading transaction</li>
+ * </ul>
+ * <p>
+ * Every method touches at most {@code limit} rows and runs in auto-commit mode, so locks are held only
+ * for the duration of one chunk and concurrent exports are never blocked for long. The final delete of
+ * the broker row finds no dependents left, so the foreign key cascades have nothing to do.
+ */
+@Repository
+@RequiredArgsConstructor
+@Slf4j
+public class BrokerPurgeRepository {
+    private final DSLContext dsl;
+
+    /**
+     * Finds the soft-deleted broker that has waited longest for its purge.
+     *
+     * @return ID of the broker, or empty if there is nothing to purge
+     */
+    public Optional<UUID> findNextDeletedBroker() {
+        return dsl.select(BROKER.ID)
+                .from(BROKER)
+                .where(BROKER.DELETED_AT.isNotNull())
+                .orderBy(BROKER.DELETED_AT, BROKER.ID)
+                .limit(1)
+                .fetchOptional(BROKER.ID);
+    }
+
+    /**
+     * Counts the soft-deleted brokers that are still waiting for their purge, including the current one.
+     *
+     * @return Number of brokers
+     */
+    public int countDeletedBrokers() {
+        return dsl.fetchCount(BROKER, BROKER.DELETED_AT.isNotNull());
+    }
+
+    /**
+     * Detaches a chunk of the broker's properties, as {@code ON DELETE SET NULL} would.
+     *
+     * @param brokerId ID of the soft-deleted broker
+     * @param limit    Maximum number of rows to touch
+     * @return Number of detached properties; less than {@code limit} means none are left
+     */
+    public int detachProperties(UUID brokerId, int limit) {
+        return dsl.update(PROPERTY)
+                .setNull(PROPERTY.BROKER_ID)
+                .where(PROPERTY.ID.in(
+                        dsl.select(PROPERTY.ID)
+                                .from(PROPERTY)
+                                .where(PROPERTY.BROKER_ID.eq(brokerId))
+                                .limit(limit)))
+                .execute();
+    }
+
+    /**
+     * Deletes a chunk of the broker's email addresses.
+     *
+     * @param brokerId ID of the soft-deleted broker
+     * @param limit    Maximum number of rows to delete
+     * @return Number of deleted rows; less than {@code limit} means none are left
+     */
+    public int deleteEmails(UUID brokerId, int limit) {
+        return dsl.deleteFrom(EMAIL)
+                .where(EMAIL.ID.in(
+                        dsl.select(EMAIL.ID)
+                                .from(EMAIL)
+                                .where(EMAIL.BROKER_ID.eq(brokerId))
+                                .limit(limit)))
+                .execute();
+    }
+
+    /**
+     * Deletes a chunk of the broker's phone numbers.
+     *
+     * @param brokerId ID of the soft-deleted broker
+     * @param limit    Maximum number of rows to delete
+     * @return Number of deleted rows; less than {@code limit} means none are left
+     */
+    public int deletePhoneNumbers(UUID brokerId, int limit) {
+        return dsl.deleteFrom(PHONE_NUMBER)
+                .where(PHONE_NUMBER.ID.in(
+                        dsl.select(PHONE_NUMBER.ID)
+                                .from(PHONE_NUMBER)
+                                .where(PHONE_NUMBER.BROKER_ID.eq(brokerId))
+                                .limit(limit)))
+                .execute();
+    }
+
+    /**
+     * Deletes a chunk of the broker's degrees.
+     *
+     * @param brokerId ID of the soft-deleted broker
+     * @param limit    Maximum number of rows to delete
+     * @return Number of deleted rows; less than {@code limit} means none are left
+     */
+    public int deleteDegrees(UUID brokerId, int limit) {
+        return dsl.deleteFrom(BROKER_DEGREE)
+                .where(DSL.row(BROKER_DEGREE.BROKER_ID, BROKER_DEGREE.DEGREE_NAME).in(
+                        dsl.select(BROKER_DEGREE.BROKER_ID, BROKER_DEGREE.DEGREE_NAME)
+                                .from(BROKER_DEGREE)
+                                .where(BROKER_DEGREE.BROKER_ID.eq(brokerId))
+                                .limit(limit)))
+                .execute();
+    }
+
+    /**
+     * Deletes the broker row itself, once its dependents are gone.
+     *
+     * @param brokerId ID of the soft-deleted broker
+     * @return true if the broker was deleted
+     */
+    public boolean deleteBroker(UUID brokerId) {
+        return dsl.deleteFrom(BROKER)
+                .where(BROKER.ID.eq(brokerId))
+                .and(BROKER.DELETED_AT.isNotNull())
+                .execute() > 0;
+    }
+}
@@ -0,0 +1,178 @@
+package workshop_jooq.repositories;
+
+import jakarta.transaction.Transactional;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.jooq.Condition;
+import org.jooq.DSLContext;
+import org.jooq.Field;
+import org.jooq.Name;
+import org.jooq.OrderField;
+import org.jooq.Record;
+import org.jooq.Table;
+import org.jooq.impl.DSL;
+import org.postgresql.PGConnection;
+import org.springframework.stereotype.Repository;
+import workshop_jooq.dtos.BulkLoadResultDto;
+import workshop_jooq.enam.BulkLoadTable;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Repository for loading large CSV feeds with PostgreSQL's {@code COPY}.
+ * <p>
+ * This class demonstrates:
+ * <ul>
+ *   <li>Reaching the pgjdbc {@code CopyManager} through the connection of a jOOQ {@link DSLContext}</li>
+ *   <li>Streaming a request body into a temporary staging table with {@code COPY ... FROM STDIN}</li>
+ *   <li>A set-based merge with {@code UPDATE ... FROM} for existing rows and {@code INSERT ... SELECT} for new ones</li>
+ * </ul>
+ * <p>
+ * {@code COPY} skips the per-row statement overhead entirely, and the merge touches every target row
+ * once, so a feed is loaded with four statements regardless of its size. The staging table lives only
+ * until the end of the transaction, and a failure anywhere rolls back the whole feed.
+ */
+@Repository
+@RequiredArgsConstructor
+@Slf4j
+public class BulkLoadRepository {
+    private final DSLContext dsl;
+
+    /**
+     * Loads a CSV feed into a table, inserting new rows and updating existing ones by primary key.
+     * <p>
+     * The first line of the feed is a header naming the columns, in the order they appear in the rows.
+     * It must contain the primary key; other columns are optional and keep their current values
+     * (or their defaults, for new rows) when omitted. Values use the PostgreSQL CSV format,
+     * e.g. an empty unquoted value is null and arrays are written as {@code "{a,b}"}.
+     * When an ID occurs more than once, the last row wins.
+     *
+     * @param target Table to load
+     * @param csv    CSV feed with a header line
+     * @return Number of staged and merged rows
+     * @throws IOException              if the header can't be read
+     * @throws IllegalArgumentException if the header is missing, names an unknown column or lacks the primary key
+     */
+    @Transactional
+    public BulkLoadResultDto load(BulkLoadTable target, InputStream csv) throws IOException {
+        Table<?> table = target.getTable();
+        List<Field<?>> columns = readHeader(table, csv);
+        Name staging = DSL.name("staging_" + table.getName());
+
+        // Only the feed's columns, with their types but without NOT NULL: an omitted column is no value, not a null
+        dsl.execute("create temporary table {0} on commit drop as {1} with no data", staging,
+                dsl.select(columns).from(table));
+
+        String copy = "copy " + dsl.render(staging) + " ("
+                + columns.stream().map(column -> dsl.render(column.getUnqualifiedName())).collect(Collectors.joining(", "))
+                + ") from stdin (format csv)";
+        long staged = dsl.connectionResult(connection ->
+                connection.unwrap(PGConnection.class).getCopyAPI().copyIn(copy, csv));
+
+        int merged = merge(table, staging, columns);
+        log.debug("Bulk loaded {}: {} rows staged, {} rows merged", table.getName(), staged, merged);
+        return new BulkLoadResultDto(table.getName(), staged, merged);
+    }
+
+    /**
+     * Moves the staged rows into the target table: existing rows are updated, then new rows are inserted.
+     * <p>
+     * The two steps are separate because PostgreSQL checks NOT NULL constraints on the row proposed by
+     * {@code INSERT ... ON CONFLICT} before it finds the conflict, so an upsert would reject a feed that updates
+     * existing rows without repeating every mandatory column. New rows still need all of them.
+     * {@code DISTINCT ON} keeps one row per key, so that no target row is touched twice. The staging table is
+     * filled by a single COPY, so descending {@code ctid} order puts the last row of the feed first.
+     * The insert keeps its {@code ON CONFLICT} clause for rows inserted concurrently since the update.
+     */
+    private <R extends Record> int merge(Table<R> table, Name staging, List<Field<?>> columns) {
+        List<? extends Field<?>> key = table.getPrimaryKey().getFields();
+
+        List<Field<?>> staged = new ArrayList<>();
+        for (Field<?> column : columns) {
+            staged.add(DSL.field(DSL.name(staging, column.getName()), column.getDataType()));
+        }
+        List<Field<?>> stagedKey = new ArrayList<>();
+        for (Field<?> keyColumn : key) {
+            stagedKey.add(DSL.field(DSL.name(staging, keyColumn.getName()), keyColumn.getDataType()));
+        }
+        List<OrderField<?>> order = new ArrayList<>(stagedKey);
+        order.add(DSL.field(DSL.name(staging, "ctid")).desc());
+
+        Name sourceName = DSL.name("source");
+        Table<?> source = dsl.selectDistinct(staged)
+                .on(stagedKey)
+                .from(DSL.table(staging))
+                .orderBy(order)
+                .asTable(sourceName);
+        Condition sameKey = DSL.and(key.stream()
+                .map(keyColumn -> DSL.field(keyColumn.getQualifiedName()).eq(DSL.field(DSL.name(sourceName, keyColumn.getName()))))
+                .toList());
+
+        Map<Field<?>, Field<?>> updates = new LinkedHashMap<>();
+        Map<Field<?>, Field<?>> upserts = new LinkedHashMap<>();
+        for (Field<?> column : columns) {
+            if (!key.contains(column)) {
+                updates.put(column, DSL.field(DSL.name(sourceName, column.getName()), column.getDataType()));
+                upserts.put(column, DSL.excluded(column));
+            }
+        }
+
+        int updated = updates.isEmpty() ? 0 : dsl.update(table)
+                .set(updates)
+                .from(source)
+                .where(sameKey)
+                .execute();
+
+        var insert = dsl.insertInto(table, columns)
+                .select(dsl.select(source.fields())
+                        .from(source)
+                        .whereNotExists(dsl.selectOne().from(table).where(sameKey)))
+                .onConflict(key);
+        int inserted = upserts.isEmpty()
+                ? insert.doNothing().execute()
+                : insert.doUpdate().set(upserts).execute();
+        return updated + inserted;
+    }
+
+    /**
+     * Reads the header line and resolves its column names against the table.
+     * <p>
+     * The stream is left positioned at the first data row, so it can be handed to {@code COPY} as is.
+     */
+    private static List<Field<?>> readHeader(Table<?> table, InputStream csv) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while ((b = csv.read()) != -1 && b != '\n') {
+            line.write(b);
+        }
+        String header = line.toString(StandardCharsets.UTF_8).strip();
+        if (header.isEmpty()) {
+            throw new IllegalArgumentException("The feed must start with a header line");
+        }
+
+        List<Field<?>> columns = new ArrayList<>();
+        for (String name : header.split(",")) {
+            // Names are only used after they have been matched against the generated table, never as raw SQL
+            Field<?> column = table.field(name.strip().replace("\"", ""));
+            if (column == null) {
+                throw new IllegalArgumentException("Unknown column " + name.strip() + " in table " + table.getName());
+            }
+            if (columns.contains(column)) {
+                throw new IllegalArgumentException("Duplicate column " + column.getName() + " in the header");
+            }
+            columns.add(column);
+        }
+        if (!columns.containsAll(table.getPrimaryKey().getFields())) {
+            throw new IllegalArgumentException("The header must contain the primary key of table " + table.getName());
+        }
+        return columns;
+    }
+}
@@ -0,0 +1,76 @@
+package workshop_jooq.repositories;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.jooq.DSLContext;
+import org.jooq.Select;
+import org.postgresql.PGConnection;
+import org.springframework.stereotype.Repository;
+
+import java.io.OutputStream;
+
+import static jooq.generated.tables.Address.ADDRESS;
+import static jooq.generated.tables.Broker.BROKER;
+import static jooq.generated.tables.Gis.GIS;
+import static jooq.generated.tables.Office.OFFICE;
+import static jooq.generated.tables.Property.PROPERTY;
+import static workshop_jooq.repositories.ExportRepository.PUBLIC_PRICE;
+
+/**
+ * Repository that dumps the whole property catalog with PostgreSQL's {@code COPY ... TO STDOUT}.
+ * <p>
+ * This class is the export counterpart of {@link BulkLoadRepository}. It demonstrates:
+ * <ul>
+ *   <li>Building the query with the jOOQ DSL and rendering it with inlined bind values for {@code COPY}</li>
+ *   <li>Letting the server format CSV and streaming it to any {@link OutputStream} with the pgjdbc {@code CopyManager}</li>
+ * </ul>
+ * <p>
+ * No record is ever mapped into a Java object: the server writes CSV rows and the driver passes
+ * the bytes on as they arrive, so memory usage doesn't depend on the size of the catalog.
+ */
+@Repository
+@RequiredArgsConstructor
+@Slf4j
+public class CatalogExportRepository {
+    private final DSLContext dsl;
+
+    /**
+     * Writes all properties, joined with their address, coordinates, broker and office, as CSV.
+     * <p>
+     * The first line is a header. Prices are only written when they're public,
+     * see {@link ExportRepository#PUBLIC_PRICE}.
+     *
+     * @param out Stream the CSV is written to; it's neither flushed nor closed
+     * @return Number of written rows, not counting the header
+     */
+    public long copyCatalogCsv(OutputStream out) {
+        Select<?> catalog = dsl.select(
+                        PROPERTY.ID.as("property_id"),
+                        PUBLIC_PRICE.as("price"),
+                        PROPERTY.IS_PUBLIC_PRICE,
+                        ADDRESS.COUNTRY,
+                        ADDRESS.CITY,
+                        ADDRESS.STREET,
+                        ADDRESS.NUMBER,
+                        GIS.LATITUDE,
+                        GIS.LONGITUDE,
+                        BROKER.ID.as("broker_id"),
+                        BROKER.FIRST_NAME.as("broker_first_name"),
+                        BROKER.LAST_NAME.as("broker_last_name"),
+                        BROKER.IS_MLS.as("broker_is_mls"),
+                        OFFICE.ID.as("office_id"),
+                        OFFICE.NAME.as("office_name"))
+                .from(PROPERTY)
+                .leftJoin(ADDRESS).on(PROPERTY.ADDRESS_ID.eq(ADDRESS.ID))
+                .leftJoin(GIS).on(ADDRESS.GIS_ID.eq(GIS.ID))
+                .leftJoin(BROKER).on(PROPERTY.BROKER_ID.eq(BROKER.ID)).and(BROKER.DELETED_AT.isNull())
+                .leftJoin(OFFICE).on(PROPERTY.OFFICE_ID.eq(OFFICE.ID));
+
+        // COPY doesn't accept bind parameters, so the query is rendered with inlined values
+        String copy = "copy (" + dsl.renderInlined(catalog) + ") to stdout (format csv, header true)";
+        long rows = dsl.connectionResult(connection ->
+                connection.unwrap(PGConnection.class).getCopyAPI().copyOut(copy, out));
+        log.debug("Exported {} catalog rows", rows);
+        return rows;
+    }
+}
@@ -2,8 +2,14 @@ package workshop_jooq.repositories;
 
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.jooq.Condition;
 import org.jooq.DSLContext;
+import org.jooq.Field;
+import org.jooq.Record;
 import org.jooq.Records;
+import org.jooq.ResultQuery;
+import org.jooq.SelectConditionStep;
+import org.jooq.SelectLimitStep;
 import org.jooq.SortField;
 import org.jooq.impl.DSL;
 import org.springframework.data.domain.Page;
@@ -15,11 +21,15 @@ import workshop_jooq.dtos.BrokerDto;
 import workshop_jooq.dtos.EmailDto;
 import workshop_jooq.dtos.GisDto;
 import workshop_jooq.dtos.OfficeDto;
+import workshop_jooq.dtos.OfficeWithBrokersDto;
 import workshop_jooq.dtos.PhoneNumberDto;
 import workshop_jooq.dtos.PropertyDto;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.UUID;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 
 import static jooq.generated.tables.Address.ADDRESS;
 import static jooq.generated.tables.Broker.BROKER;
@@ -55,6 +65,77 @@ import static org.jooq.impl.DSL.multiset;
 @RequiredArgsConstructor
 @Slf4j
 public class ExportRepository {
+    // Access control for prices: every query that exposes a price selects this instead of PROPERTY.PRICE,
+    // so prices are only exposed when they're public. The condition renders without a bind value,
+    // so the field can also be grouped by.
+    static final Field<Integer> PUBLIC_PRICE = DSL.when(DSL.condition(PROPERTY.IS_PUBLIC_PRICE), PROPERTY.PRICE);
+
+    // Nested collections of the single-statement property detail query, correlated with PROPERTY and BROKER
+    private static final Field<List<String>> PROPERTY_IMAGES = multiset(
+            DSL.select(IMAGE.IMAGE_URL)
+                    .from(IMAGE)
+                    .where(IMAGE.PROPERTY_ID.eq(PROPERTY.ID)))
+            .convertFrom(r -> r.collect(Records.intoList()));
+
+    private static final Field<List<String>> BROKER_DEGREES = multiset(
+            DSL.select(BROKER_DEGREE.DEGREE_NAME)
+                    .from(BROKER_DEGREE)
+                    .where(BROKER_DEGREE.BROKER_ID.eq(BROKER.ID)))
+            .convertFrom(r -> r.collect(Records.intoList()));
+
+    private static final Field<List<EmailDto>> BROKER_EMAILS = multiset(
+            DSL.select(EMAIL.EMAIL_, EMAIL.TYPE)
+                    .from(EMAIL)
+                    .where(EMAIL.BROKER_ID.eq(BROKER.ID)))
+            .convertFrom(r -> r.map(Records.mapping(EmailDto::new)));
+
+    private static final Field<List<PhoneNumberDto>> BROKER_PHONE_NUMBERS = multiset(
+            DSL.select(PHONE_NUMBER.NUMBER, PHONE_NUMBER.TYPE)
+                    .from(PHONE_NUMBER)
+                    .where(PHONE_NUMBER.BROKER_ID.eq(BROKER.ID)))
+            .convertFrom(r -> r.map(Records.mapping(PhoneNumberDto::new)));
+
+    // Nested collections of the office hierarchy query, correlated with OFFICE
+    private static final Field<List<EmailDto>> OFFICE_EMAILS = multiset(
+            DSL.select(EMAIL.EMAIL_, EMAIL.TYPE)
+                    .from(EMAIL)
+                    .where(EMAIL.OFFICE_ID.eq(OFFICE.ID)))
+            .convertFrom(r -> r.map(Records.mapping(EmailDto::new)));
+
+    private static final Field<List<PhoneNumberDto>> OFFICE_PHONE_NUMBERS = multiset(
+            DSL.select(PHONE_NUMBER.NUMBER, PHONE_NUMBER.TYPE)
+                    .from(PHONE_NUMBER)
+                    .where(PHONE_NUMBER.OFFICE_ID.eq(OFFICE.ID)))
+            .convertFrom(r -> r.map(Records.mapping(PhoneNumberDto::new)));
+
+    // Brokers nest their own collections, so the whole hierarchy is still a single statement
+    private static final Field<List<BrokerDto>> OFFICE_BROKERS = multiset(
+            DSL.select(
+                            BROKER.ID,
+                            BROKER.FIRST_NAME,
+                            BROKER.LAST_NAME,
+                            BROKER.IS_MLS,
+                            BROKER.VERSION,
+                            BROKER_DEGREES,
+                            BROKER_EMAILS,
+                            BROKER_PHONE_NUMBERS)
+                    .from(BROKER)
+                    .where(BROKER.OFFICE_ID.eq(OFFICE.ID))
+                    .and(BROKER.DELETED_AT.isNull())
+                    .orderBy(BROKER.LAST_NAME, BROKER.FIRST_NAME, BROKER.ID))
+            .convertFrom(r -> r.map(b -> {
+                BrokerDto broker = new BrokerDto();
+                broker.setId(b.get(BROKER.ID));
+                broker.setFirstName(b.get(BROKER.FIRST_NAME));
+                broker.setLastName(b.get(BROKER.LAST_NAME));
+                broker.setIsPaidUser(b.get(BROKER.IS_MLS));
+                broker.setVersion(b.get(BROKER.VERSION));
+                broker.setDegreeBefore(b.get(BROKER_DEGREES));
+                broker.setEmails(b.get(BROKER_EMAILS));
+                broker.setPhoneNumbers(b.get(BROKER_PHONE_NUMBERS));
+                return broker;
+            }));
+
     private final DSLContext dsl;
 
     /**
@@ -159,11 +240,9 @@ public class ExportRepository {
      */
     public PropertyDto getPropertyById(UUID officeId, UUID propertyId) {
         // Retrieve basic Property information
-        // Using conditional selection with DSL.when() for price to implement access control
-        // This ensures that prices are only included when they're public
+        // Using conditional selection with DSL.when() for price to implement access control, see PUBLIC_PRICE
         PropertyDto propertyResult = dsl.select(
-                        DSL.when(PROPERTY.IS_PUBLIC_PRICE.isTrue(), PROPERTY.PRICE)
-                                .otherwise((Integer) null).as(PropertyDto.Fields.price),
+                        PUBLIC_PRICE.as(PropertyDto.Fields.price),
                         PROPERTY.IS_PUBLIC_PRICE,
                         PROPERTY.BROKER_ID,
                         PROPERTY.ADDRESS_ID
@@ -228,6 +307,7 @@ public class ExportRepository {
                                 BROKER.FIRST_NAME,
                                 BROKER.LAST_NAME,
                                 BROKER.IS_MLS.as(BrokerDto.Fields.isPaidUser), // Field name mapping when DTO field differs from DB
+                                BROKER.VERSION, // Lets the client update the broker with If-Match
                                 multiset(
                                         dsl.select(BROKER_DEGREE.DEGREE_NAME)
                                                 .from(BROKER_DEGREE)
@@ -237,6 +317,7 @@ public class ExportRepository {
                         )
                         .from(BROKER)
                         .where(BROKER.ID.eq(propertyResult.getBrokerId()))
+                        .and(BROKER.DELETED_AT.isNull()) // Soft-deleted brokers are hidden until they're purged
                         .fetchOneInto(BrokerDto.class);
 
                 if (brokerResult != null) {
@@ -266,6 +347,130 @@ public class ExportRepository {
         return propertyResult;
     }
 
+    /**
+     * Retrieves detailed property information in a single round trip.
+     * <p>
+     * This is the single-statement counterpart of {@link #getPropertyById(UUID, UUID)} and
+     * produces the same DTO graph. It demonstrates:
+     * <ul>
+     *   <li>Left joins for to-one relations (address, GIS, broker)</li>
+     *   <li>Correlated multisets for to-many relations (images, degrees, emails, phone numbers)</li>
+     *   <li>Ad-hoc converters that map nested collections straight into DTOs</li>
+     * </ul>
+     * <p>
+     * One statement means one connection checkout and one network round trip instead of up to six,
+     * at the price of a heavier query plan. Both variants are kept so they can be benchmarked against each other.
+     *
+     * @param officeId   ID of the office that owns the property
+     * @param propertyId ID of the property to retrieve
+     * @return Complete property DTO with all related information, or null if not found
+     */
+    public PropertyDto getPropertyByIdSingleQuery(UUID officeId, UUID propertyId) {
+        return selectPropertyDetails(PROPERTY.ID.eq(propertyId).and(PROPERTY.OFFICE_ID.eq(officeId)))
+                .fetchOne(ExportRepository::toPropertyDto);
+    }
+
+    /**
+     * Retrieves detailed information for several properties of an office at once.
+     * <p>
+     * This method demonstrates:
+     * <ul>
+     *   <li>Binding a whole ID list as a single array parameter with {@code = ANY(?)}</li>
+     *   <li>Reusing the single-statement property query for a set of rows</li>
+     * </ul>
+     * <p>
+     * The number of statements doesn't depend on the number of requested IDs: it's always one,
+     * and the SQL text is the same for any list size, so the prepared statement can be reused.
+     *
+     * @param officeId    ID of the office that owns the properties
+     * @param propertyIds IDs of the properties to retrieve
+     * @return Complete property DTOs with their IDs set; IDs that don't exist in the office are skipped
+     */
+    public List<PropertyDto> getPropertiesByIds(UUID officeId, Collection<UUID> propertyIds) {
+        return selectPropertyDetails(PROPERTY.ID.eq(DSL.any(propertyIds.toArray(UUID[]::new)))
+                .and(PROPERTY.OFFICE_ID.eq(officeId)))
+                .fetch(ExportRepository::toPropertyDto);
+    }
+
+    /**
+     * Builds the single-statement property detail query for all properties matching the condition.
+     * <p>
+     * Nested collections are correlated with the outer query, so each one is evaluated only for the matched rows.
+     */
+    private ResultQuery<? extends Record> selectPropertyDetails(Condition condition) {
+        return dsl.select(
+                        PROPERTY.ID,
+                        PUBLIC_PRICE.as(PropertyDto.Fields.price),
+                        PROPERTY.IS_PUBLIC_PRICE,
+                        PROPERTY.BROKER_ID,
+                        PROPERTY.ADDRESS_ID,
+                        ADDRESS.ID,
+                        ADDRESS.COUNTRY,
+                        ADDRESS.CITY,
+                        ADDRESS.STREET,
+                        ADDRESS.NUMBER,
+                        GIS.LATITUDE,
+                        GIS.LONGITUDE,
+                        PROPERTY_IMAGES,
+                        BROKER.ID,
+                        BROKER.FIRST_NAME,
+                        BROKER.LAST_NAME,
+                        BROKER.IS_MLS,
+                        BROKER.VERSION,
+                        BROKER_DEGREES,
+                        BROKER_EMAILS,
+                        BROKER_PHONE_NUMBERS
+                )
+                .from(PROPERTY)
+                .leftJoin(ADDRESS).on(PROPERTY.ADDRESS_ID.eq(ADDRESS.ID))
+                .leftJoin(GIS).on(ADDRESS.GIS_ID.eq(GIS.ID))
+                .leftJoin(BROKER).on(PROPERTY.BROKER_ID.eq(BROKER.ID)).and(BROKER.DELETED_AT.isNull())
+                .where(condition);
+    }
+
+    /**
+     * Maps a row of {@link #selectPropertyDetails(Condition)} to a property DTO.
+     */
+    private static PropertyDto toPropertyDto(Record r) {
+        PropertyDto propertyDto = new PropertyDto();
+        propertyDto.setId(r.get(PROPERTY.ID));
+        propertyDto.setPrice(r.get(PROPERTY.PRICE));
+        propertyDto.setIsPublicPrice(r.get(PROPERTY.IS_PUBLIC_PRICE));
+        propertyDto.setBrokerId(r.get(PROPERTY.BROKER_ID));
+        propertyDto.setAddressId(r.get(PROPERTY.ADDRESS_ID));
+        propertyDto.setImages(r.get(PROPERTY_IMAGES));
+
+        // A missing joined row is detected by its primary key, mirroring the null results of the multi-query path
+        if (r.get(ADDRESS.ID) != null) {
+            AddressDto addressDto = new AddressDto();
+            addressDto.setCountry(r.get(ADDRESS.COUNTRY));
+            addressDto.setCity(r.get(ADDRESS.CITY));
+            addressDto.setStreet(r.get(ADDRESS.STREET));
+            addressDto.setNumber(r.get(ADDRESS.NUMBER));
+
+            GisDto gisDto = new GisDto();
+            gisDto.setLatitude(r.get(GIS.LATITUDE));
+            gisDto.setLongitude(r.get(GIS.LONGITUDE));
+            addressDto.setCoordinates(gisDto);
+
+            propertyDto.setAddress(addressDto);
+        }
+
+        if (r.get(BROKER.ID) != null) {
+            BrokerDto brokerDto = new BrokerDto();
+            brokerDto.setFirstName(r.get(BROKER.FIRST_NAME));
+            brokerDto.setLastName(r.get(BROKER.LAST_NAME));
+            brokerDto.setIsPaidUser(r.get(BROKER.IS_MLS));
+            brokerDto.setVersion(r.get(BROKER.VERSION));
+            brokerDto.setDegreeBefore(r.get(BROKER_DEGREES));
+            brokerDto.setEmails(r.get(BROKER_EMAILS));
+            brokerDto.setPhoneNumbers(r.get(BROKER_PHONE_NUMBERS));
+            propertyDto.setBroker(brokerDto);
+        }
+
+        return propertyDto;
+    }
+
     /**
      * Retrieves a paginated list of properties for a specific broker.
      * <p>
@@ -299,7 +504,7 @@ public class ExportRepository {
                 .from(PROPERTY)
                 .join(ADDRESS).on(PROPERTY.ADDRESS_ID.eq(ADDRESS.ID)) // Using inner join as we need address
                 .where(PROPERTY.OFFICE_ID.eq(officeId))
-                .and(PROPERTY.BROKER_ID.eq(brokerId));
+                .and(ofActiveBroker(brokerId));
 
         // Get total count for pagination
         int totalCount = dsl.fetchCount(select);
@@ -330,6 +535,204 @@ public class ExportRepository {
         return new PageImpl<>(properties, pageRequest, totalCount);
     }
 
+    /**
+     * Retrieves one page of properties for a specific broker using keyset pagination.
+     * <p>
+     * This method demonstrates:
+     * <ul>
+     *   <li>Keyset (seek) pagination with jOOQ's seek() instead of offset()</li>
+     *   <li>A unique sort key, (city, id), so that the seek predicate never skips or repeats rows</li>
+     * </ul>
+     * <p>
+     * Unlike offset pagination, the database never has to produce and discard the rows of previous pages,
+     * so deep pages are as cheap as the first one. Properties without a city are sorted as an empty city,
+     * because a seek predicate can't compare NULLs.
+     *
+     * @param officeId  ID of the office
+     * @param brokerId  ID of the broker whose properties to retrieve
+     * @param limit     Maximum number of records to return
+     * @param afterCity City of the last record of the previous page, or null for the first page
+     * @param afterId   ID of the last record of the previous page, or null for the first page
+     * @return List of property DTOs with their IDs set, in (city, id) order
+     */
+    public List<PropertyDto> getPropertiesShortInfoForBrokerAfter(UUID officeId, UUID brokerId, int limit, String afterCity, UUID afterId) {
+        Field<String> city = DSL.coalesce(ADDRESS.CITY, DSL.inline(""));
+
+        var ordered = dsl.select(
+                        PROPERTY.ID,
+                        PROPERTY.PRICE,
+                        ADDRESS.COUNTRY,
+                        ADDRESS.CITY,
+                        ADDRESS.STREET,
+                        ADDRESS.NUMBER
+                )
+                .from(PROPERTY)
+                .join(ADDRESS).on(PROPERTY.ADDRESS_ID.eq(ADDRESS.ID))
+                .where(PROPERTY.OFFICE_ID.eq(officeId))
+                .and(ofActiveBroker(brokerId))
+                .orderBy(city.asc(), PROPERTY.ID.asc());
+
+        // On the first page there is nothing to seek after
+        SelectLimitStep<? extends Record> page = afterId == null
+                ? ordered
+                : ordered.seek(afterCity == null ? "" : afterCity, afterId);
+
+        return page
+                .limit(limit)
+                .fetch(r -> {
+                    PropertyDto property = new PropertyDto();
+                    property.setId(r.get(PROPERTY.ID));
+                    property.setPrice(r.get(PROPERTY.PRICE));
+
+                    AddressDto address = new AddressDto();
+                    address.setCountry(r.get(ADDRESS.COUNTRY));
+                    address.setCity(r.get(ADDRESS.CITY));
+                    address.setStreet(r.get(ADDRESS.STREET));
+                    address.setNumber(r.get(ADDRESS.NUMBER));
+
+                    property.setAddress(address);
+                    return property;
+                });
+    }
+
+    /**
+     * Counts all properties of a specific broker, as listed by the paginated methods.
+     *
+     * @param officeId ID of the office
+     * @param brokerId ID of the broker whose properties to count
+     * @return Total number of properties
+     */
+    public int countPropertiesForBroker(UUID officeId, UUID brokerId) {
+        return dsl.fetchCount(
+                dsl.selectOne()
+                        .from(PROPERTY)
+                        .join(ADDRESS).on(PROPERTY.ADDRESS_ID.eq(ADDRESS.ID))
+                        .where(PROPERTY.OFFICE_ID.eq(officeId))
+                        .and(ofActiveBroker(brokerId)));
+    }
+
+    /**
+     * Matches the properties of a broker, unless the broker is soft-deleted.
+     * <p>
+     * The EXISTS subquery isn't correlated, so PostgreSQL evaluates it once per statement.
+     */
+    private static Condition ofActiveBroker(UUID brokerId) {
+        return PROPERTY.BROKER_ID.eq(brokerId)
+                .and(DSL.exists(DSL.selectOne()
+                        .from(BROKER)
+                        .where(BROKER.ID.eq(brokerId))
+                        .and(BROKER.DELETED_AT.isNull())));
+    }
+
+    /**
+     * Retrieves an office with all its brokers, including their degrees and contacts.
+     *
+     * @param officeId ID of the office to retrieve
+     * @return Office DTO with brokers, or null if not found
+     */
+    public OfficeWithBrokersDto getOfficeWithBrokers(UUID officeId) {
+        return selectOfficesWithBrokers(OFFICE.ID.eq(officeId))
+                .fetchOne(ExportRepository::toOfficeWithBrokersDto);
+    }
+
+    /**
+     * Retrieves several offices with all their brokers, including their degrees and contacts.
+     *
+     * @param officeIds IDs of the offices to retrieve
+     * @return Office DTOs with brokers and IDs set, in ID order; unknown IDs are skipped
+     */
+    public List<OfficeWithBrokersDto> getOfficesWithBrokers(Collection<UUID> officeIds) {
+        return selectOfficesWithBrokers(OFFICE.ID.eq(DSL.any(officeIds.toArray(UUID[]::new))))
+                .orderBy(OFFICE.ID)
+                .fetch(ExportRepository::toOfficeWithBrokersDto);
+    }
+
+    /**
+     * Retrieves the next batch of offices with all their brokers, using keyset pagination on the office ID.
+     * <p>
+     * This method demonstrates:
+     * <ul>
+     *   <li>Nested multisets: brokers inside offices, contacts inside brokers</li>
+     *   <li>One statement per batch of offices instead of one query per broker</li>
+     *   <li>Walking a whole table in bounded batches with seek()</li>
+     * </ul>
+     *
+     * @param afterOfficeId ID of the last office of the previous batch, or null for the first batch
+     * @param limit         Maximum number of offices in the batch
+     * @return Office DTOs with brokers and IDs set, in ID order
+     */
+    public List<OfficeWithBrokersDto> getOfficesWithBrokersAfter(UUID afterOfficeId, int limit) {
+        var ordered = selectOfficesWithBrokers(DSL.noCondition())
+                .orderBy(OFFICE.ID);
+
+        SelectLimitStep<? extends Record> batch = afterOfficeId == null
+                ? ordered
+                : ordered.seek(afterOfficeId);
+
+        return batch
+                .limit(limit)
+                .fetch(ExportRepository::toOfficeWithBrokersDto);
+    }
+
+    /**
+     * Builds the office hierarchy query for all offices matching the condition.
+     */
+    private SelectConditionStep<? extends Record> selectOfficesWithBrokers(Condition condition) {
+        return dsl.select(
+                        OFFICE.ID,
+                        OFFICE.NAME,
+                        OFFICE.ISHIDDEN,
+                        OFFICE.DATE_OPENING,
+                        OFFICE.TAGS,
+                        ADDRESS.ID,
+                        ADDRESS.COUNTRY,
+                        ADDRESS.CITY,
+                        ADDRESS.STREET,
+                        ADDRESS.NUMBER,
+                        GIS.LATITUDE,
+                        GIS.LONGITUDE,
+                        OFFICE_EMAILS,
+                        OFFICE_PHONE_NUMBERS,
+                        OFFICE_BROKERS
+                )
+                .from(OFFICE)
+                .leftJoin(ADDRESS).on(ADDRESS.ID.eq(OFFICE.ADDRESS_ID))
+                .leftJoin(GIS).on(ADDRESS.GIS_ID.eq(GIS.ID))
+                .where(condition);
+    }
+
+    /**
+     * Maps a row of {@link #selectOfficesWithBrokers(Condition)} to an office DTO with brokers.
+     */
+    private static OfficeWithBrokersDto toOfficeWithBrokersDto(Record r) {
+        OfficeWithBrokersDto office = new OfficeWithBrokersDto();
+        office.setId(r.get(OFFICE.ID));
+        office.setOfficeName(r.get(OFFICE.NAME));
+        office.setIsShowOnExport(!Boolean.TRUE.equals(r.get(OFFICE.ISHIDDEN)));
+        office.setDateOpening(r.get(OFFICE.DATE_OPENING));
+        office.setTags(r.get(OFFICE.TAGS));
+
+        if (r.get(ADDRESS.ID) != null) {
+            AddressDto address = new AddressDto();
+            address.setCountry(r.get(ADDRESS.COUNTRY));
+            address.setCity(r.get(ADDRESS.CITY));
+            address.setStreet(r.get(ADDRESS.STREET));
+            address.setNumber(r.get(ADDRESS.NUMBER));
+
+            GisDto gis = new GisDto();
+            gis.setLatitude(r.get(GIS.LATITUDE));
+            gis.setLongitude(r.get(GIS.LONGITUDE));
+            address.setCoordinates(gis);
+
+            office.setAddress(address);
+        }
+
+        office.setEmails(r.get(OFFICE_EMAILS));
+        office.setPhoneNumbers(r.get(OFFICE_PHONE_NUMBERS));
+        office.setBrokers(r.get(OFFICE_BROKERS));
+        return office;
+    }
+
     /**
      * Retrieves all offices with their contact details.
      * <p>
@@ -344,6 +747,41 @@ public class ExportRepository {
      * @return List of office DTOs with contact information
      */
     public List<OfficeDto> getAllOffices() {
+        return selectAllOffices(dsl).fetch(ExportRepository::toOfficeDto);
+    }
+
+    /**
+     * Streams all offices with their contact details to the given consumer, one office at a time.
+     * <p>
+     * This method demonstrates:
+     * <ul>
+     *   <li>Lazy fetching with fetchStream() and a JDBC fetch size</li>
+     *   <li>Running the cursor inside a transaction, because the PostgreSQL driver ignores
+     *       the fetch size and buffers the whole result in auto-commit mode</li>
+     *   <li>Reusing the same query and mapping as {@link #getAllOffices()}</li>
+     * </ul>
+     * <p>
+     * Only one batch of rows is held in memory at any time, no matter how many offices there are.
+     * The stream is closed, and the connection released, before this method returns.
+     *
+     * @param fetchSize Number of rows fetched from the database per round trip
+     * @param consumer  Consumer that receives each office as soon as its row is read
+     */
+    public void streamAllOffices(int fetchSize, Consumer<OfficeDto> consumer) {
+        dsl.transaction(configuration -> {
+            try (Stream<OfficeDto> offices = selectAllOffices(configuration.dsl())
+                    .fetchSize(fetchSize)
+                    .fetchStream()
+                    .map(ExportRepository::toOfficeDto)) {
+                offices.forEach(consumer);
+            }
+        });
+    }
+
+    /**
+     * Builds the query behind {@link #getAllOffices()} and {@link #streamAllOffices(int, Consumer)}.
+     */
+    private static ResultQuery<? extends Record> selectAllOffices(DSLContext dsl) {
         return dsl.select(
                         // Field mapping is done in fetch(), in this case alias can provide an exception, so this example below is not useful:
                         // OFFICE.NAME.as(OfficeDto.Fields.officeName),
@@ -375,29 +813,34 @@ public class ExportRepository {
                         OFFICE.TAGS
                 )
                 .from(OFFICE)
-                .leftJoin(ADDRESS).on(ADDRESS.ID.eq(OFFICE.ADDRESS_ID))
-                .fetch(r -> {
-                    OfficeDto office = new OfficeDto();
-                    office.setOfficeName(r.get(OFFICE.NAME));
-                    office.setDateOpening(r.get(OFFICE.DATE_OPENING));
-                    office.setTags(r.get(OFFICE.TAGS));
-
-                    // Creating a calculated field by concatenating address parts
-                    // TODO Move it to service. Don't do some business logic inside the repo
-                    office.setCookedAddress(r.get(ADDRESS.COUNTRY) + ", "
-                            + r.get(ADDRESS.CITY) + ", "
-                            + r.get(ADDRESS.STREET) + ", "
-                            + r.get(ADDRESS.NUMBER));
-
-                    // Get emails from multiset result
-                    List<EmailDto> emails = (List<EmailDto>) r.get(OfficeDto.Fields.emails);
-                    office.setEmails(emails);
-
-                    // Get phone numbers from multiset result
-                    List<PhoneNumberDto> phoneNumbers = (List<PhoneNumberDto>) r.get(OfficeDto.Fields.phoneNumbers);
-                    office.setPhoneNumbers(phoneNumbers);
-
-                    return office;
-                });
+                .leftJoin(ADDRESS).on(ADDRESS.ID.eq(OFFICE.ADDRESS_ID));
+    }
+
+    /**
+     * Maps a row of {@link #selectAllOffices(DSLContext)} to an office DTO.
+     */
+    @SuppressWarnings("unchecked")
+    private static OfficeDto toOfficeDto(Record r) {
+        OfficeDto office = new OfficeDto();
+        office.setOfficeName(r.get(OFFICE.NAME));
+        office.setDateOpening(r.get(OFFICE.DATE_OPENING));
+        office.setTags(r.get(OFFICE.TAGS));
+
+        // Creating a calculated field by concatenating address parts
+        // TODO Move it to service. Don't do some business logic inside the repo
+        office.setCookedAddress(r.get(ADDRESS.COUNTRY) + ", "
+                + r.get(ADDRESS.CITY) + ", "
+                + r.get(ADDRESS.STREET) + ", "
+                + r.get(ADDRESS.NUMBER));
+
+        // Get emails from multiset result
+        List<EmailDto> emails = (List<EmailDto>) r.get(OfficeDto.Fields.emails);
+        office.setEmails(emails);
+
+        // Get phone numbers from multiset result
+        List<PhoneNumberDto> phoneNumbers = (List<PhoneNumberDto>) r.get(OfficeDto.Fields.phoneNumbers);
+        office.setPhoneNumbers(phoneNumbers);
+
+        return office;
     }
 }
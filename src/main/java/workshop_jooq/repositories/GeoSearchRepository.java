@@ -0,0 +1,206 @@
+package workshop_jooq.repositories;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.jooq.Condition;
+import org.jooq.DSLContext;
+import org.jooq.Field;
+import org.jooq.Record;
+import org.jooq.impl.DSL;
+import org.jooq.impl.SQLDataType;
+import org.springframework.stereotype.Repository;
+import workshop_jooq.dtos.PropertyClusterDto;
+import workshop_jooq.dtos.PropertyLocationDto;
+
+import java.util.List;
+
+import static jooq.generated.tables.Address.ADDRESS;
+import static jooq.generated.tables.Gis.GIS;
+import static jooq.generated.tables.Property.PROPERTY;
+import static workshop_jooq.repositories.ExportRepository.PUBLIC_PRICE;
+
+/**
+ * Repository for searching properties by location.
+ * <p>
+ * This class demonstrates:
+ * <ul>
+ *   <li>Bounding-box predicates that an index on {@code gis (latitude, longitude)} can answer</li>
+ *   <li>Refining the box to a circle with the haversine formula, evaluated only for the candidates in the box</li>
+ *   <li>Plain SQL templates for math that is easier to read as SQL than as nested jOOQ function calls</li>
+ *   <li>Grid clustering with {@code GROUP BY} on the cell of each coordinate, so the database returns aggregates instead of points</li>
+ * </ul>
+ * <p>
+ * The search starts at the coordinates and joins outwards: {@code gis} to {@code address} by
+ * {@code idx_address_gis_id}, {@code address} to {@code property} by {@code idx_property_address_id}.
+ * A box that crosses the antimeridian is split into two longitude ranges.
+ */
+@Repository
+@RequiredArgsConstructor
+@Slf4j
+public class GeoSearchRepository {
+    /**
+     * Mean earth radius in kilometers.
+     */
+    private static final double EARTH_RADIUS_KM = 6371.0088;
+
+    private static final double KM_PER_DEGREE_LATITUDE = EARTH_RADIUS_KM * Math.PI / 180;
+
+    private final DSLContext dsl;
+
+    /**
+     * Finds the properties within a radius, nearest first.
+     *
+     * @param latitude  Latitude of the center in degrees
+     * @param longitude Longitude of the center in degrees
+     * @param radiusKm  Radius in kilometers
+     * @param limit     Maximum number of properties to return
+     * @return Properties with their distance from the center
+     */
+    public List<PropertyLocationDto> findNear(double latitude, double longitude, double radiusKm, int limit) {
+        // The smallest box around the circle, so the index can narrow the candidates down first
+        double deltaLatitude = radiusKm / KM_PER_DEGREE_LATITUDE;
+        double minLatitude = latitude - deltaLatitude;
+        double maxLatitude = latitude + deltaLatitude;
+        Condition box;
+        if (minLatitude <= -90 || maxLatitude >= 90) {
+            // The circle contains a pole, so it spans all longitudes
+            box = latitudeBetween(Math.max(minLatitude, -90), Math.min(maxLatitude, 90));
+        } else {
+            // Meridians converge towards the poles, so the box is widest at the latitude closest to a pole
+            double deltaLongitude = deltaLatitude / Math.cos(Math.toRadians(Math.max(Math.abs(minLatitude), Math.abs(maxLatitude))));
+            box = deltaLongitude >= 180
+                    ? latitudeBetween(minLatitude, maxLatitude)
+                    : within(minLatitude, maxLatitude, wrap(longitude - deltaLongitude), wrap(longitude + deltaLongitude));
+        }
+
+        Field<Double> distance = distanceKm(latitude, longitude).as("distance_km");
+        return dsl.select(location())
+                .select(distance)
+                .from(GIS)
+                .join(ADDRESS).on(ADDRESS.GIS_ID.eq(GIS.ID))
+                .join(PROPERTY).on(PROPERTY.ADDRESS_ID.eq(ADDRESS.ID))
+                .where(box)
+                .and(distanceKm(latitude, longitude).le(radiusKm))
+                .orderBy(DSL.field(distance.getUnqualifiedName()).asc(), PROPERTY.ID)
+                .limit(limit)
+                .fetch(r -> toLocationDto(r, r.get(distance)));
+    }
+
+    /**
+     * Finds the properties within a bounding box.
+     * <p>
+     * A box with {@code minLongitude > maxLongitude} crosses the antimeridian.
+     *
+     * @param minLatitude  Southern edge in degrees
+     * @param minLongitude Western edge in degrees
+     * @param maxLatitude  Northern edge in degrees
+     * @param maxLongitude Eastern edge in degrees
+     * @param limit        Maximum number of properties to return
+     * @return Properties in the box, ordered by ID so that the result is stable
+     */
+    public List<PropertyLocationDto> findWithin(double minLatitude, double minLongitude, double maxLatitude, double maxLongitude, int limit) {
+        return dsl.select(location())
+                .from(GIS)
+                .join(ADDRESS).on(ADDRESS.GIS_ID.eq(GIS.ID))
+                .join(PROPERTY).on(PROPERTY.ADDRESS_ID.eq(ADDRESS.ID))
+                .where(within(minLatitude, maxLatitude, minLongitude, maxLongitude))
+                .orderBy(PROPERTY.ID)
+                .limit(limit)
+                .fetch(r -> toLocationDto(r, null));
+    }
+
+    /**
+     * Aggregates the properties within a bounding box into the cells of a regular grid.
+     * <p>
+     * Every coordinate is assigned to a cell with {@code floor(coordinate / cellDegrees)} and the rows are
+     * grouped by cell, so the result has at most one row per cell, no matter how many properties there are.
+     *
+     * @param minLatitude  Southern edge in degrees
+     * @param minLongitude Western edge in degrees
+     * @param maxLatitude  Northern edge in degrees
+     * @param maxLongitude Eastern edge in degrees; less than {@code minLongitude} if the box crosses the antimeridian
+     * @param cellDegrees  Width and height of a grid cell in degrees
+     * @return One cluster per non-empty cell
+     */
+    public List<PropertyClusterDto> cluster(double minLatitude, double minLongitude, double maxLatitude, double maxLongitude, double cellDegrees) {
+        // Inlined, so GROUP BY and ORDER BY render identical expressions instead of different bind parameters
+        Field<Double> row = DSL.floor(GIS.LATITUDE.div(DSL.inline(cellDegrees)));
+        Field<Double> column = DSL.floor(GIS.LONGITUDE.div(DSL.inline(cellDegrees)));
+        Field<Integer> count = DSL.count();
+        Field<Double> latitude = DSL.avg(GIS.LATITUDE).cast(SQLDataType.DOUBLE);
+        Field<Double> longitude = DSL.avg(GIS.LONGITUDE).cast(SQLDataType.DOUBLE);
+        Field<Integer> minPrice = DSL.min(PUBLIC_PRICE);
+        Field<Integer> maxPrice = DSL.max(PUBLIC_PRICE);
+
+        return dsl.select(count, latitude, longitude, minPrice, maxPrice)
+                .from(GIS)
+                .join(ADDRESS).on(ADDRESS.GIS_ID.eq(GIS.ID))
+                .join(PROPERTY).on(PROPERTY.ADDRESS_ID.eq(ADDRESS.ID))
+                .where(within(minLatitude, maxLatitude, minLongitude, maxLongitude))
+                .groupBy(row, column)
+                .orderBy(row, column)
+                .fetch(r -> new PropertyClusterDto(r.get(count), r.get(latitude), r.get(longitude), r.get(minPrice), r.get(maxPrice)));
+    }
+
+    /**
+     * Matches coordinates within a box; the longitude range wraps around if it crosses the antimeridian.
+     */
+    private static Condition within(double minLatitude, double maxLatitude, double minLongitude, double maxLongitude) {
+        Condition longitude = minLongitude <= maxLongitude
+                ? GIS.LONGITUDE.between(minLongitude, maxLongitude)
+                : GIS.LONGITUDE.ge(minLongitude).or(GIS.LONGITUDE.le(maxLongitude));
+        return latitudeBetween(minLatitude, maxLatitude).and(longitude);
+    }
+
+    private static Condition latitudeBetween(double minLatitude, double maxLatitude) {
+        return GIS.LATITUDE.between(minLatitude, maxLatitude);
+    }
+
+    /**
+     * Normalizes a longitude to [-180, 180].
+     */
+    private static double wrap(double longitude) {
+        if (longitude < -180) {
+            return longitude + 360;
+        }
+        return longitude > 180 ? longitude - 360 : longitude;
+    }
+
+    /**
+     * Great-circle distance in kilometers between the coordinates of the row and a point, by the haversine formula.
+     * {@code least(1, ...)} guards {@code asin} against rounding errors for antipodal points.
+     */
+    private static Field<Double> distanceKm(double latitude, double longitude) {
+        return DSL.field(
+                "2 * {0} * asin(least(1, sqrt("
+                        + "power(sin(radians({1} - {2}) / 2), 2) "
+                        + "+ cos(radians({2})) * cos(radians({1})) * power(sin(radians({3} - {4}) / 2), 2))))",
+                SQLDataType.DOUBLE,
+                DSL.inline(EARTH_RADIUS_KM), GIS.LATITUDE, DSL.val(latitude), GIS.LONGITUDE, DSL.val(longitude));
+    }
+
+    private static List<Field<?>> location() {
+        return List.of(
+                PROPERTY.ID,
+                PROPERTY.OFFICE_ID,
+                PUBLIC_PRICE.as(PROPERTY.PRICE),
+                ADDRESS.CITY,
+                ADDRESS.STREET,
+                ADDRESS.NUMBER,
+                GIS.LATITUDE,
+                GIS.LONGITUDE);
+    }
+
+    private static PropertyLocationDto toLocationDto(Record r, Double distanceKm) {
+        return new PropertyLocationDto(
+                r.get(PROPERTY.ID),
+                r.get(PROPERTY.OFFICE_ID),
+                r.get(PROPERTY.PRICE),
+                r.get(ADDRESS.CITY),
+                r.get(ADDRESS.STREET),
+                r.get(ADDRESS.NUMBER),
+                r.get(GIS.LATITUDE),
+                r.get(GIS.LONGITUDE),
+                distanceKm);
+    }
+}
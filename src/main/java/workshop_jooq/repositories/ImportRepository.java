@@ -2,21 +2,49 @@ package workshop_jooq.repositories;
 
 import jakarta.persistence.EntityNotFoundException;
 import jakarta.transaction.Transactional;
+import jooq.generated.tables.records.BrokerRecord;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.jooq.Condition;
 import org.jooq.DSLContext;
+import org.jooq.Field;
+import org.jooq.Query;
+import org.jooq.QueryPart;
+import org.jooq.Record;
+import org.jooq.Record3;
+import org.jooq.Result;
+import org.jooq.Row2;
+import org.jooq.Row4;
+import org.jooq.impl.DSL;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.dao.OptimisticLockingFailureException;
 import org.springframework.stereotype.Repository;
+import workshop_jooq.dtos.BrokerBulkDeleteResultDto;
 import workshop_jooq.dtos.BrokerDto;
 import workshop_jooq.dtos.EmailDto;
 import workshop_jooq.dtos.PhoneNumberDto;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
 import java.util.UUID;
+import java.util.function.BiFunction;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
 import static jooq.generated.tables.Broker.BROKER;
 import static jooq.generated.tables.BrokerDegree.BROKER_DEGREE;
 import static jooq.generated.tables.Email.EMAIL;
 import static jooq.generated.tables.PhoneNumber.PHONE_NUMBER;
+import static jooq.generated.tables.Property.PROPERTY;
+import static org.jooq.impl.DSL.multiset;
 
 /**
  * Repository for importing data into the database using jOOQ.
@@ -44,156 +72,270 @@ public class ImportRepository {
      * This method demonstrates:
      * <ul>
      *   <li>Transactional operations to ensure data consistency</li>
-     *   <li>Insert operations with returning clause to get generated IDs</li>
+     *   <li>Application-side time-ordered IDs ({@link UuidV7}), so no generated key has to be read back</li>
+     *   <li>Sending the broker and all its child rows to the database in one round trip</li>
      *   <li>Handling of collections and related entities</li>
      *   <li>Use of jOOQ's fluent API for building insert statements</li>
      * </ul>
      * <p>
-     * The method creates a broker record and then inserts all related degrees, emails, and phone numbers.
+     * The method creates a broker record together with all related degrees, emails, and phone numbers.
+     * The IDs are known before anything is sent, so the up to four inserts travel in a single round trip.
      * The entire operation is wrapped in a transaction to ensure data consistency.
+     * A broker with an external ID is upserted instead, see {@link #createBrokers(List)}.
      *
      * @param brokerDto DTO containing broker information to be created
      * @return The created broker DTO with assigned ID
-     * @throws NullPointerException if the insert operation fails to return an ID
+     * @throws DuplicateKeyException if the external ID belongs to a soft-deleted broker that isn't purged yet
      */
     @Transactional
     public BrokerDto createBroker(BrokerDto brokerDto) {
-        // Insert the broker and get the generated ID
-        // Using requireNonNull to ensure we have an ID; otherwise, throw an exception
-        UUID brokerId = Objects.requireNonNull(dsl.insertInto(BROKER)
-                        .set(BROKER.FIRST_NAME, brokerDto.getFirstName())
-                        .set(BROKER.LAST_NAME, brokerDto.getLastName())
-                        .set(BROKER.OFFICE_ID, brokerDto.getOfficeId())
-                        .set(BROKER.IS_MLS, brokerDto.getIsPaidUser())
-                        .returning(BROKER.ID)
-                        .fetchOne())
-                .getId();
-
-        // Insert broker degrees if provided
-        // This demonstrates handling optional collections in the data model
-        if (brokerDto.getDegreeBefore() != null && !brokerDto.getDegreeBefore().isEmpty()) {
-            for (String degree : brokerDto.getDegreeBefore()) {
-                dsl.insertInto(BROKER_DEGREE)
-                        .set(BROKER_DEGREE.BROKER_ID, brokerId)
-                        .set(BROKER_DEGREE.DEGREE_NAME, degree)
-                        .execute();
-            }
+        if (brokerDto.getExternalId() != null) {
+            // A retry of an already imported broker must not create a duplicate
+            return upsertBrokers(List.of(brokerDto)).get(0);
         }
 
-        // Insert email addresses if provided
-        if (brokerDto.getEmails() != null && !brokerDto.getEmails().isEmpty()) {
-            for (EmailDto emailDto : brokerDto.getEmails()) {
-                dsl.insertInto(EMAIL)
-                        .set(EMAIL.BROKER_ID, brokerId)
-                        .set(EMAIL.EMAIL_, emailDto.email())
-                        .set(EMAIL.TYPE, emailDto.type())
-                        .execute();
-            }
-        }
+        UUID brokerId = UuidV7.next();
 
-        // Insert phone numbers if provided
-        if (brokerDto.getPhoneNumbers() != null && !brokerDto.getPhoneNumbers().isEmpty()) {
-            for (PhoneNumberDto phoneDto : brokerDto.getPhoneNumbers()) {
-                dsl.insertInto(PHONE_NUMBER)
-                        .set(PHONE_NUMBER.BROKER_ID, brokerId)
-                        .set(PHONE_NUMBER.NUMBER, phoneDto.number())
-                        .set(PHONE_NUMBER.TYPE, phoneDto.type())
-                        .execute();
-            }
-        }
+        List<Query> batch = new ArrayList<>();
+        batch.add(dsl.insertInto(BROKER)
+                .set(BROKER.ID, brokerId)
+                .set(BROKER.FIRST_NAME, brokerDto.getFirstName())
+                .set(BROKER.LAST_NAME, brokerDto.getLastName())
+                .set(BROKER.OFFICE_ID, brokerDto.getOfficeId())
+                .set(BROKER.IS_MLS, brokerDto.getIsPaidUser()));
 
-        // Set the generated ID on the DTO before returning
+        // Insert broker degrees, email addresses and phone numbers if provided
+        // Each collection is written with one multi-row insert, and all inserts are sent together
+        insertDegrees(batch, degreeRows(brokerId, brokerDto.getDegreeBefore()));
+        insertEmails(batch, emailRows(brokerId, brokerDto.getEmails()));
+        insertPhoneNumbers(batch, phoneNumberRows(brokerId, brokerDto.getPhoneNumbers()));
+        execute(batch);
+
+        // Set the generated ID and the initial version on the DTO before returning
         brokerDto.setId(brokerId);
+        brokerDto.setVersion(0L);
+        brokerDto.setMatchedExisting(false);
         return brokerDto;
     }
 
+    /**
+     * Creates a chunk of brokers with their related information in one transaction.
+     * <p>
+     * This method demonstrates:
+     * <ul>
+     *   <li>Application-side time-ordered IDs, so child rows don't have to wait for generated keys</li>
+     *   <li>Idempotent imports with {@code INSERT ... ON CONFLICT (external_id) DO UPDATE}</li>
+     *   <li>Multi-row statements that span all brokers of the chunk</li>
+     *   <li>One transaction per chunk: either the whole chunk is stored or none of it</li>
+     * </ul>
+     * <p>
+     * Brokers with an external ID that is already known update the existing broker instead of creating
+     * a duplicate, so retries of the same import are harmless. Their collections are synchronized
+     * by diff, as in {@link #updateBroker(BrokerDto)}. A broker is only written, and its version only
+     * incremented, if its data actually differs: a retry with unchanged data writes nothing at all.
+     * Brokers without an external ID are always created.
+     * <p>
+     * A chunk costs at most nine statements in three round trips, no matter how many brokers and contacts it contains.
+     * The number of bind values per statement grows with the chunk size; PostgreSQL accepts at most 65535.
+     *
+     * @param brokers DTOs containing the broker information to create
+     * @return The created or updated broker DTOs with assigned IDs
+     * @throws DuplicateKeyException if an external ID belongs to a soft-deleted broker that isn't purged yet
+     */
+    @Transactional
+    public List<BrokerDto> createBrokers(List<BrokerDto> brokers) {
+        if (brokers.isEmpty()) {
+            return brokers;
+        }
+        return upsertBrokers(brokers);
+    }
+
     /**
      * Updates an existing broker record with all related information.
      * <p>
      * This method demonstrates:
      * <ul>
-     *   <li>Checking existence before performing operations</li>
-     *   <li>Transactional updates with related records</li>
-     *   <li>Delete-then-insert pattern for handling collection updates</li>
+     *   <li>Locking and reading the broker with its child rows in one {@code SELECT ... FOR NO KEY UPDATE}</li>
+     *   <li>Diff-based synchronization of related collections</li>
+     *   <li>Optimistic concurrency with a compare-and-set on the version column</li>
      *   <li>Error handling with custom exceptions</li>
      * </ul>
      * <p>
-     * The method follows a "delete all and recreate" pattern for related collections
-     * (degrees, emails, phone numbers) which is simple but effective for maintaining
-     * data consistency. All operations are performed within a transaction.
+     * Instead of deleting and recreating all degrees, emails and phone numbers, the method compares
+     * them with the requested ones and only deletes the rows that are gone and inserts the ones that are new.
+     * The broker row is only rewritten, and its version only incremented, if one of its columns or collections
+     * actually changes, as for the upserts of {@link #createBrokers(List)}: an update that changes nothing costs
+     * a single statement, writes nothing and leaves the ETags other clients hold valid. All changes travel
+     * together in a second round trip. All operations are performed within a transaction.
+     * <p>
+     * If the DTO carries a version, the update only applies to that version, see {@link #versionMatches(UUID, Long)}.
      *
      * @param brokerDto DTO containing updated broker information
-     * @return The updated broker DTO
-     * @throws EntityNotFoundException if the broker doesn't exist
+     * @return The updated broker DTO with the ID of its office and its current version set
+     * @throws EntityNotFoundException          if the broker doesn't exist
+     * @throws OptimisticLockingFailureException if the broker doesn't have the expected version
      */
     @Transactional
     public BrokerDto updateBroker(BrokerDto brokerDto) {
-        // Check if the broker exists before attempting update
-        // This is a jOOQ pattern for existence checking
-        boolean exists = dsl.fetchExists(
-                dsl.selectOne()
-                        .from(BROKER)
-                        .where(BROKER.ID.eq(brokerDto.getId()))
-        );
+        UUID brokerId = brokerDto.getId();
+
+        // Lock the broker and read its current state; the lock keeps it unchanged until the comparison is written
+        // No returned row means there is no such broker or it has another version; only then is it checked which one
+        var current = dsl.select(BROKER.FIRST_NAME, BROKER.LAST_NAME, BROKER.IS_MLS, BROKER.OFFICE_ID, BROKER.VERSION,
+                        currentDegrees(), currentEmails(), currentPhoneNumbers())
+                .from(BROKER)
+                .where(versionMatches(brokerId, brokerDto.getVersion()))
+                .forNoKeyUpdate()
+                .fetchOne();
 
-        if (!exists) {
-            throw new EntityNotFoundException("Broker not found with ID: " + brokerDto.getId());
+        if (current == null) {
+            throw notUpdated(brokerId, brokerDto.getVersion());
         }
+        brokerDto.setOfficeId(current.value4());
+        brokerDto.setVersion(current.value5());
 
-        // Update the broker's main information
-        dsl.update(BROKER)
-                .set(BROKER.FIRST_NAME, brokerDto.getFirstName())
-                .set(BROKER.LAST_NAME, brokerDto.getLastName())
-                .set(BROKER.IS_MLS, brokerDto.getIsPaidUser())
-                .where(BROKER.ID.eq(brokerDto.getId()))
-                .execute();
+        // Update degrees, emails and phone numbers: only the difference between the current and the requested rows
+        ChildChanges changes = new ChildChanges();
+        boolean childrenChanged = changes.diff(brokerId, brokerDto, current.value6(), current.value7(), current.value8());
+        boolean columnsChanged = !Objects.equals(current.value1(), brokerDto.getFirstName())
+                || !Objects.equals(current.value2(), brokerDto.getLastName())
+                || !Objects.equals(current.value3(), brokerDto.getIsPaidUser());
 
-        // Update broker degrees: delete all existing then insert new ones
-        // This is a simple but effective pattern for collection updates
-        dsl.deleteFrom(BROKER_DEGREE)
-                .where(BROKER_DEGREE.BROKER_ID.eq(brokerDto.getId()))
-                .execute();
+        // Update the broker's main information only if it differs, so an unchanged broker keeps its row and its version
+        if (columnsChanged) {
+            changes.updateBroker(dsl.update(BROKER)
+                    .set(BROKER.FIRST_NAME, brokerDto.getFirstName())
+                    .set(BROKER.LAST_NAME, brokerDto.getLastName())
+                    .set(BROKER.IS_MLS, brokerDto.getIsPaidUser())
+                    .set(BROKER.VERSION, BROKER.VERSION.plus(1))
+                    .where(BROKER.ID.eq(brokerId)));
+        } else if (childrenChanged) {
+            changes.bumpVersion(brokerId);
+        }
+        if (columnsChanged || childrenChanged) {
+            brokerDto.setVersion(current.value5() + 1);
+        }
+        changes.apply();
 
-        if (brokerDto.getDegreeBefore() != null && !brokerDto.getDegreeBefore().isEmpty()) {
-            for (String degree : brokerDto.getDegreeBefore()) {
-                dsl.insertInto(BROKER_DEGREE)
-                        .set(BROKER_DEGREE.BROKER_ID, brokerDto.getId())
-                        .set(BROKER_DEGREE.DEGREE_NAME, degree)
-                        .execute();
-            }
+        return brokerDto;
+    }
+
+    /**
+     * Applies a partial update to a broker, touching only the given fields.
+     * <p>
+     * This method demonstrates:
+     * <ul>
+     *   <li>Building the {@code SET} clause dynamically from a map of fields</li>
+     *   <li>Skipping the child tables entirely for collections that aren't part of the patch</li>
+     * </ul>
+     * <p>
+     * Only the patched columns appear in the {@code UPDATE}. A patched collection replaces the current one,
+     * which is diffed as in {@link #updateBroker(BrokerDto)}; collections that aren't patched cost no
+     * statement at all. The returned broker reflects the state after the patch; its unpatched collections
+     * are read by the same statement that updates the broker. The version is incremented by every patch and
+     * checked if the DTO carries one, as in {@link #updateBroker(BrokerDto)}.
+     *
+     * @param patch  DTO holding the new values, with the ID of the broker and optionally the expected version set
+     * @param fields Names of the {@link BrokerDto} fields present in the patch
+     * @return The patched broker with all its fields, the ID of its office and the new version set
+     * @throws EntityNotFoundException          if the broker doesn't exist
+     * @throws OptimisticLockingFailureException if the broker doesn't have the expected version
+     * @throws DuplicateKeyException            if the patched external ID belongs to another broker
+     */
+    @Transactional
+    public BrokerDto patchBroker(BrokerDto patch, Set<String> fields) {
+        UUID brokerId = patch.getId();
+
+        Map<Field<?>, Object> columns = new LinkedHashMap<>();
+        // Collections count as part of the broker, so even a patch of only the collections is a new version
+        columns.put(BROKER.VERSION, BROKER.VERSION.plus(1));
+        if (fields.contains(BrokerDto.Fields.firstName)) {
+            columns.put(BROKER.FIRST_NAME, patch.getFirstName());
+        }
+        if (fields.contains(BrokerDto.Fields.lastName)) {
+            columns.put(BROKER.LAST_NAME, patch.getLastName());
+        }
+        if (fields.contains(BrokerDto.Fields.isPaidUser)) {
+            columns.put(BROKER.IS_MLS, patch.getIsPaidUser());
+        }
+        if (fields.contains(BrokerDto.Fields.externalId)) {
+            columns.put(BROKER.EXTERNAL_ID, patch.getExternalId());
         }
 
-        // Update emails: delete all existing then insert new ones
-        dsl.deleteFrom(EMAIL)
-                .where(EMAIL.BROKER_ID.eq(brokerDto.getId()))
-                .execute();
+        // Aliased, so the values can be read back from the record by field
+        Field<String[]> degrees = currentDegrees().as("degrees");
+        Field<Result<Record3<UUID, String, String>>> emails = currentEmails().as("emails");
+        Field<Result<Record3<UUID, String, String>>> phoneNumbers = currentPhoneNumbers().as("phone_numbers");
+        // RETURNING yields the new column values, while the child subqueries still see the state before the patch
+        Record current = dsl.update(BROKER)
+                .set(columns)
+                .where(versionMatches(brokerId, patch.getVersion()))
+                .returningResult(BROKER.FIRST_NAME, BROKER.LAST_NAME, BROKER.IS_MLS, BROKER.EXTERNAL_ID,
+                        BROKER.OFFICE_ID, BROKER.VERSION, degrees, emails, phoneNumbers)
+                .fetchOne();
+        if (current == null) {
+            throw notUpdated(brokerId, patch.getVersion());
+        }
 
-        if (brokerDto.getEmails() != null && !brokerDto.getEmails().isEmpty()) {
-            for (EmailDto emailDto : brokerDto.getEmails()) {
-                dsl.insertInto(EMAIL)
-                        .set(EMAIL.BROKER_ID, brokerDto.getId())
-                        .set(EMAIL.EMAIL_, emailDto.email())
-                        .set(EMAIL.TYPE, emailDto.type())
-                        .execute();
-            }
+        BrokerDto patched = new BrokerDto();
+        patched.setId(brokerId);
+        patched.setOfficeId(current.get(BROKER.OFFICE_ID));
+        patched.setVersion(current.get(BROKER.VERSION));
+        patched.setFirstName(current.get(BROKER.FIRST_NAME));
+        patched.setLastName(current.get(BROKER.LAST_NAME));
+        patched.setIsPaidUser(current.get(BROKER.IS_MLS));
+        patched.setExternalId(current.get(BROKER.EXTERNAL_ID));
+
+        ChildChanges changes = new ChildChanges();
+        if (fields.contains(BrokerDto.Fields.degreeBefore)) {
+            changes.diffDegrees(brokerId, patch.getDegreeBefore(), current.get(degrees));
+            patched.setDegreeBefore(patch.getDegreeBefore() == null ? List.of() : patch.getDegreeBefore());
+        } else {
+            patched.setDegreeBefore(current.get(degrees) == null ? List.of() : List.of(current.get(degrees)));
+        }
+        if (fields.contains(BrokerDto.Fields.emails)) {
+            changes.diffEmails(brokerId, patch.getEmails(), current.get(emails));
+            patched.setEmails(patch.getEmails() == null ? List.of() : patch.getEmails());
+        } else {
+            patched.setEmails(current.get(emails).map(row -> new EmailDto(row.value2(), row.value3())));
         }
+        if (fields.contains(BrokerDto.Fields.phoneNumbers)) {
+            changes.diffPhoneNumbers(brokerId, patch.getPhoneNumbers(), current.get(phoneNumbers));
+            patched.setPhoneNumbers(patch.getPhoneNumbers() == null ? List.of() : patch.getPhoneNumbers());
+        } else {
+            patched.setPhoneNumbers(current.get(phoneNumbers).map(row -> new PhoneNumberDto(row.value2(), row.value3())));
+        }
+        changes.apply();
 
-        // Update phone numbers: delete all existing then insert new ones
-        dsl.deleteFrom(PHONE_NUMBER)
-                .where(PHONE_NUMBER.BROKER_ID.eq(brokerDto.getId()))
-                .execute();
+        return patched;
+    }
 
-        if (brokerDto.getPhoneNumbers() != null && !brokerDto.getPhoneNumbers().isEmpty()) {
-            for (PhoneNumberDto phoneDto : brokerDto.getPhoneNumbers()) {
-                dsl.insertInto(PHONE_NUMBER)
-                        .set(PHONE_NUMBER.BROKER_ID, brokerDto.getId())
-                        .set(PHONE_NUMBER.NUMBER, phoneDto.number())
-                        .set(PHONE_NUMBER.TYPE, phoneDto.type())
-                        .execute();
-            }
+    /**
+     * Soft-deletes a broker.
+     * <p>
+     * Only the broker row is touched, so the statement is short no matter how many properties and contacts
+     * the broker has. The broker disappears from all exports immediately; its dependent rows are removed
+     * later, in small chunks, by {@link BrokerPurgeRepository}.
+     *
+     * @param brokerId ID of the broker to delete
+     * @return ID of the office the broker belonged to, may be null
+     * @throws EntityNotFoundException if the broker doesn't exist or is already deleted
+     */
+    @Transactional
+    public UUID softDeleteBroker(UUID brokerId) {
+        Optional<BrokerRecord> deleted = dsl.update(BROKER)
+                .set(BROKER.DELETED_AT, DSL.currentOffsetDateTime())
+                .where(BROKER.ID.eq(brokerId))
+                .and(BROKER.DELETED_AT.isNull())
+                .returning(BROKER.OFFICE_ID)
+                .fetchOptional();
+
+        if (deleted.isEmpty()) {
+            throw new EntityNotFoundException("Broker not found with ID: " + brokerId);
         }
 
-        return brokerDto;
+        log.info("Broker with ID {} was soft-deleted, related records will be purged in the background", brokerId);
+        return deleted.get().getOfficeId();
     }
 
     /**
@@ -211,21 +353,479 @@ public class ImportRepository {
      * This is more efficient than manually deleting each related record.
      *
      * @param brokerId ID of the broker to delete
+     * @return ID of the office the broker belonged to, may be null
      * @throws EntityNotFoundException if the broker doesn't exist
      */
     @Transactional
-    public void deleteBroker(UUID brokerId) {
-        // Delete the broker and check if any rows were affected
-        int deleted = dsl.deleteFrom(BROKER)
+    public UUID deleteBroker(UUID brokerId) {
+        // Delete the broker and return its office ID, an empty result means nothing was deleted
+        Optional<BrokerRecord> deleted = dsl.deleteFrom(BROKER)
                 .where(BROKER.ID.eq(brokerId))
-                .execute();
+                .returning(BROKER.OFFICE_ID)
+                .fetchOptional();
 
         // If no rows were deleted, the broker didn't exist
-        if (deleted == 0) {
+        if (deleted.isEmpty()) {
             throw new EntityNotFoundException("Broker not found with ID: " + brokerId);
         }
 
         // Log successful deletion, just because we can
         log.info("Broker with ID {} was deleted along with all related records", brokerId);
+        return deleted.get().getOfficeId();
+    }
+
+    /**
+     * Deletes many brokers and all related records with a handful of set-based statements.
+     * <p>
+     * This method demonstrates:
+     * <ul>
+     *   <li>{@code = ANY(?)} with a single array bind value instead of one statement per broker</li>
+     *   <li>Locking the target rows with {@code SELECT ... FOR UPDATE} before touching their dependents</li>
+     *   <li>Deleting dependents explicitly, so every table reports its own row count</li>
+     * </ul>
+     * <p>
+     * The foreign keys would cascade on their own, but then only the broker count would be known.
+     * Soft-deleted brokers are deleted right away as well; the purge job simply finds nothing left.
+     * IDs that don't exist are ignored.
+     *
+     * @param brokerIds IDs of the brokers to delete
+     * @return Deleted brokers, their offices and the affected rows per table
+     */
+    @Transactional
+    public BrokerBulkDeleteResultDto deleteBrokers(Collection<UUID> brokerIds) {
+        return deleteBrokers(BROKER.ID.eq(DSL.any(brokerIds.toArray(UUID[]::new))));
+    }
+
+    /**
+     * Deletes all brokers of an office and their related records, see {@link #deleteBrokers(Collection)}.
+     * The office itself is kept.
+     *
+     * @param officeId ID of the office whose brokers are deleted
+     * @return Deleted brokers and the affected rows per table
+     */
+    @Transactional
+    public BrokerBulkDeleteResultDto deleteOfficeBrokers(UUID officeId) {
+        return deleteBrokers(BROKER.OFFICE_ID.eq(officeId));
+    }
+
+    private BrokerBulkDeleteResultDto deleteBrokers(Condition brokers) {
+        // Locked first, so no child row can be added to a broker between the statements below
+        Map<UUID, UUID> officeByBroker = dsl.select(BROKER.ID, BROKER.OFFICE_ID)
+                .from(BROKER)
+                .where(brokers)
+                .forUpdate()
+                .fetchMap(BROKER.ID, BROKER.OFFICE_ID);
+        if (officeByBroker.isEmpty()) {
+            return new BrokerBulkDeleteResultDto(List.of(), List.of(), 0, 0, 0, 0, 0);
+        }
+
+        UUID[] ids = officeByBroker.keySet().toArray(UUID[]::new);
+        // A property may belong to another office than its broker, and that office's exports change as well
+        List<UUID> propertyOfficeIds = dsl.update(PROPERTY)
+                .setNull(PROPERTY.BROKER_ID)
+                .where(PROPERTY.BROKER_ID.eq(DSL.any(ids)))
+                .returningResult(PROPERTY.OFFICE_ID)
+                .fetch(PROPERTY.OFFICE_ID);
+        int propertiesDetached = propertyOfficeIds.size();
+        int emailsDeleted = dsl.deleteFrom(EMAIL)
+                .where(EMAIL.BROKER_ID.eq(DSL.any(ids)))
+                .execute();
+        int phoneNumbersDeleted = dsl.deleteFrom(PHONE_NUMBER)
+                .where(PHONE_NUMBER.BROKER_ID.eq(DSL.any(ids)))
+                .execute();
+        int degreesDeleted = dsl.deleteFrom(BROKER_DEGREE)
+                .where(BROKER_DEGREE.BROKER_ID.eq(DSL.any(ids)))
+                .execute();
+        int brokersDeleted = dsl.deleteFrom(BROKER)
+                .where(BROKER.ID.eq(DSL.any(ids)))
+                .execute();
+
+        log.info("{} brokers were deleted along with {} emails, {} phone numbers and {} degrees, {} properties were detached",
+                brokersDeleted, emailsDeleted, phoneNumbersDeleted, degreesDeleted, propertiesDetached);
+        return new BrokerBulkDeleteResultDto(
+                List.copyOf(officeByBroker.keySet()),
+                Stream.concat(officeByBroker.values().stream(), propertyOfficeIds.stream()).filter(Objects::nonNull).distinct().toList(),
+                brokersDeleted, propertiesDetached, emailsDeleted, phoneNumbersDeleted, degreesDeleted);
+    }
+
+    /**
+     * Finds the offices of the properties the brokers are assigned to.
+     * <p>
+     * The schema doesn't force a property into its broker's office, so a broker write can change the
+     * exported properties of other offices than the broker's own.
+     *
+     * @param brokerIds IDs of the brokers
+     * @return Distinct office IDs
+     */
+    public List<UUID> findPropertyOfficeIds(Collection<UUID> brokerIds) {
+        return dsl.selectDistinct(PROPERTY.OFFICE_ID)
+                .from(PROPERTY)
+                .where(PROPERTY.BROKER_ID.eq(DSL.any(brokerIds.toArray(UUID[]::new))))
+                .and(PROPERTY.OFFICE_ID.isNotNull())
+                .fetch(PROPERTY.OFFICE_ID);
+    }
+
+    /**
+     * Inserts or updates brokers by external ID with one statement, then synchronizes their collections.
+     * <p>
+     * Every broker gets an application-side ID; for a broker that already exists, RETURNING reports
+     * the existing ID instead. Rows are matched back to their DTOs by external ID, or by the generated ID
+     * for brokers without one, since RETURNING doesn't guarantee the order of the VALUES.
+     * The office of an existing broker is kept, as in {@link #updateBroker(BrokerDto)}, and
+     * {@link BrokerDto#isMatchedExisting()} tells the caller which brokers already existed.
+     * <p>
+     * An existing broker whose columns wouldn't change is skipped by the {@code IS DISTINCT FROM} condition,
+     * so neither the row nor its indexes are written and its version stays. Skipped rows aren't returned;
+     * they are read back by external ID afterwards, which is safe because {@code ON CONFLICT} locks the
+     * conflicting row even when it skips the update. Only brokers whose collections change get a new version then.
+     * A soft-deleted broker with the same external ID is skipped as well and fails the whole chunk with a
+     * {@link DuplicateKeyException}.
+     */
+    private List<BrokerDto> upsertBrokers(List<BrokerDto> brokers) {
+        // ON CONFLICT DO UPDATE can't touch a row twice, so only the last occurrence of an external ID is written
+        Map<String, BrokerDto> byExternalId = new LinkedHashMap<>();
+        Map<UUID, BrokerDto> byId = new LinkedHashMap<>();
+        for (BrokerDto brokerDto : brokers) {
+            brokerDto.setId(UuidV7.next());
+            if (brokerDto.getExternalId() == null) {
+                byId.put(brokerDto.getId(), brokerDto);
+            } else {
+                byExternalId.put(brokerDto.getExternalId(), brokerDto);
+            }
+        }
+        List<BrokerDto> written = new ArrayList<>(byId.values());
+        written.addAll(byExternalId.values());
+
+        var current = dsl.insertInto(BROKER, BROKER.ID, BROKER.EXTERNAL_ID, BROKER.FIRST_NAME, BROKER.LAST_NAME, BROKER.OFFICE_ID, BROKER.IS_MLS)
+                .valuesOfRows(written.stream()
+                        .map(brokerDto -> DSL.row(
+                                brokerDto.getId(),
+                                brokerDto.getExternalId(),
+                                brokerDto.getFirstName(),
+                                brokerDto.getLastName(),
+                                brokerDto.getOfficeId(),
+                                brokerDto.getIsPaidUser()))
+                        .toList())
+                .onConflict(BROKER.EXTERNAL_ID)
+                .doUpdate()
+                .set(BROKER.FIRST_NAME, DSL.excluded(BROKER.FIRST_NAME))
+                .set(BROKER.LAST_NAME, DSL.excluded(BROKER.LAST_NAME))
+                .set(BROKER.IS_MLS, DSL.excluded(BROKER.IS_MLS))
+                .set(BROKER.VERSION, BROKER.VERSION.plus(1))
+                // A soft-deleted broker keeps its external ID until it's purged and must not be revived meanwhile
+                .where(BROKER.DELETED_AT.isNull())
+                .and(DSL.row(BROKER.FIRST_NAME, BROKER.LAST_NAME, BROKER.IS_MLS).isDistinctFrom(
+                        DSL.excluded(BROKER.FIRST_NAME), DSL.excluded(BROKER.LAST_NAME), DSL.excluded(BROKER.IS_MLS)))
+                .returningResult(BROKER.ID, BROKER.EXTERNAL_ID, BROKER.OFFICE_ID, BROKER.VERSION, currentDegrees(), currentEmails(), currentPhoneNumbers())
+                .fetch();
+
+        // Brokers without an external ID are always inserted, so only known external IDs can be missing
+        Set<String> skipped = new LinkedHashSet<>(byExternalId.keySet());
+        current.forEach(row -> skipped.remove(row.value2()));
+        Set<UUID> unchanged = new LinkedHashSet<>();
+        if (!skipped.isEmpty()) {
+            var existing = dsl.select(BROKER.ID, BROKER.EXTERNAL_ID, BROKER.OFFICE_ID, BROKER.VERSION, currentDegrees(), currentEmails(), currentPhoneNumbers())
+                    .from(BROKER)
+                    .where(BROKER.EXTERNAL_ID.eq(DSL.any(skipped.toArray(String[]::new))))
+                    .and(BROKER.DELETED_AT.isNull())
+                    .fetch();
+            // A skipped row that isn't a live broker is a soft-deleted one, and the transaction is rolled back
+            if (existing.size() < skipped.size()) {
+                throw new DuplicateKeyException("A broker with the same external ID is being deleted, retry after it has been purged");
+            }
+            existing.forEach(row -> unchanged.add(row.value1()));
+            current.addAll(existing);
+        }
+
+        // The child subqueries see the state before the statement, so new brokers have no current rows
+        ChildChanges changes = new ChildChanges();
+        for (var row : current) {
+            BrokerDto brokerDto = row.value2() == null ? byId.get(row.value1()) : byExternalId.get(row.value2());
+            // An inserted row carries the ID generated above, an existing one keeps its own
+            brokerDto.setMatchedExisting(!row.value1().equals(brokerDto.getId()));
+            brokerDto.setId(row.value1());
+            brokerDto.setOfficeId(row.value3());
+            brokerDto.setVersion(row.value4());
+            boolean childrenChanged = changes.diff(row.value1(), brokerDto, row.value5(), row.value6(), row.value7());
+            // Collections count as part of the broker, as in patchBroker(), so changing only them is a new version too
+            if (childrenChanged && unchanged.contains(row.value1())) {
+                changes.bumpVersion(row.value1());
+                brokerDto.setVersion(row.value4() + 1);
+            }
+        }
+        changes.apply();
+
+        // Earlier occurrences of a repeated external ID describe the same broker
+        for (BrokerDto brokerDto : brokers) {
+            if (brokerDto.getExternalId() != null) {
+                BrokerDto stored = byExternalId.get(brokerDto.getExternalId());
+                brokerDto.setId(stored.getId());
+                brokerDto.setOfficeId(stored.getOfficeId());
+                brokerDto.setVersion(stored.getVersion());
+                brokerDto.setMatchedExisting(stored.isMatchedExisting());
+            }
+        }
+        return brokers;
+    }
+
+    /**
+     * Selects the broker to update, if it isn't deleted and, when a version is expected, still has that version.
+     * <p>
+     * With an expected version, the row is claimed by a subquery with {@code FOR NO KEY UPDATE SKIP LOCKED}.
+     * A broker locked by another writer is most likely about to get a new version, so instead of waiting for
+     * the lock and then failing the version check, the statement matches no row and fails right away.
+     */
+    private Condition versionMatches(UUID brokerId, Long expectedVersion) {
+        if (expectedVersion == null) {
+            return BROKER.ID.eq(brokerId).and(BROKER.DELETED_AT.isNull());
+        }
+        return BROKER.ID.in(
+                dsl.select(BROKER.ID)
+                        .from(BROKER)
+                        .where(BROKER.ID.eq(brokerId))
+                        .and(BROKER.DELETED_AT.isNull())
+                        .and(BROKER.VERSION.eq(expectedVersion))
+                        .forNoKeyUpdate()
+                        .skipLocked());
+    }
+
+    /**
+     * Explains why a conditional update or lock matched no row: the broker is missing, or it has another version.
+     */
+    private RuntimeException notUpdated(UUID brokerId, Long expectedVersion) {
+        if (expectedVersion != null && dsl.fetchExists(BROKER, BROKER.ID.eq(brokerId).and(BROKER.DELETED_AT.isNull()))) {
+            return new OptimisticLockingFailureException(
+                    "Broker with ID " + brokerId + " was modified concurrently, version " + expectedVersion + " is outdated");
+        }
+        return new EntityNotFoundException("Broker not found with ID: " + brokerId);
+    }
+
+    /**
+     * Degree names of the broker, for use in RETURNING; null if it has none.
+     */
+    private Field<String[]> currentDegrees() {
+        return DSL.field(
+                dsl.select(DSL.arrayAgg(BROKER_DEGREE.DEGREE_NAME))
+                        .from(BROKER_DEGREE)
+                        .where(BROKER_DEGREE.BROKER_ID.eq(BROKER.ID)));
+    }
+
+    /**
+     * Email rows (ID, email, type) of the broker, for use in RETURNING.
+     */
+    private Field<Result<Record3<UUID, String, String>>> currentEmails() {
+        return multiset(
+                dsl.select(EMAIL.ID, EMAIL.EMAIL_, EMAIL.TYPE)
+                        .from(EMAIL)
+                        .where(EMAIL.BROKER_ID.eq(BROKER.ID)));
+    }
+
+    /**
+     * Phone number rows (ID, number, type) of the broker, for use in RETURNING.
+     */
+    private Field<Result<Record3<UUID, String, String>>> currentPhoneNumbers() {
+        return multiset(
+                dsl.select(PHONE_NUMBER.ID, PHONE_NUMBER.NUMBER, PHONE_NUMBER.TYPE)
+                        .from(PHONE_NUMBER)
+                        .where(PHONE_NUMBER.BROKER_ID.eq(BROKER.ID)));
+    }
+
+    /**
+     * Collects the differences between current and requested child rows of one or more brokers,
+     * so that they can be applied with one statement per table and kind of change.
+     */
+    private final class ChildChanges {
+        private final List<Row2<UUID, String>> staleDegrees = new ArrayList<>();
+        private final List<UUID> staleEmailIds = new ArrayList<>();
+        private final List<UUID> stalePhoneNumberIds = new ArrayList<>();
+        private final List<Row2<UUID, String>> newDegrees = new ArrayList<>();
+        private final List<Row4<UUID, UUID, String, String>> newEmails = new ArrayList<>();
+        private final List<Row4<UUID, UUID, String, String>> newPhoneNumbers = new ArrayList<>();
+        private final List<UUID> bumpedBrokerIds = new ArrayList<>();
+        private final List<Query> brokerUpdates = new ArrayList<>();
+
+        /**
+         * @return Whether any of the broker's collections differs from the requested one
+         */
+        boolean diff(UUID brokerId, BrokerDto brokerDto, String[] currentDegrees,
+                     Result<Record3<UUID, String, String>> currentEmails,
+                     Result<Record3<UUID, String, String>> currentPhoneNumbers) {
+            int before = size();
+            diffDegrees(brokerId, brokerDto.getDegreeBefore(), currentDegrees);
+            diffEmails(brokerId, brokerDto.getEmails(), currentEmails);
+            diffPhoneNumbers(brokerId, brokerDto.getPhoneNumbers(), currentPhoneNumbers);
+            return size() != before;
+        }
+
+        /**
+         * Increments the version of a broker whose row isn't updated otherwise.
+         */
+        void bumpVersion(UUID brokerId) {
+            bumpedBrokerIds.add(brokerId);
+        }
+
+        /**
+         * Sends an update of the broker rows together with the child changes, ahead of them.
+         */
+        void updateBroker(Query update) {
+            brokerUpdates.add(update);
+        }
+
+        private int size() {
+            return staleDegrees.size() + staleEmailIds.size() + stalePhoneNumberIds.size()
+                    + newDegrees.size() + newEmails.size() + newPhoneNumbers.size();
+        }
+
+        void diffDegrees(UUID brokerId, List<String> degrees, String[] currentDegrees) {
+            Set<String> requestedDegrees = degrees == null
+                    ? new LinkedHashSet<>()
+                    : new LinkedHashSet<>(degrees);
+            if (currentDegrees != null) {
+                for (String degree : currentDegrees) {
+                    // What remains in the requested set afterwards is new
+                    if (!requestedDegrees.remove(degree)) {
+                        staleDegrees.add(DSL.row(brokerId, degree));
+                    }
+                }
+            }
+            newDegrees.addAll(degreeRows(brokerId, requestedDegrees));
+        }
+
+        void diffEmails(UUID brokerId, List<EmailDto> emails, Result<Record3<UUID, String, String>> currentEmails) {
+            List<EmailDto> requestedEmails = emails == null
+                    ? new ArrayList<>()
+                    : new ArrayList<>(emails);
+            staleEmailIds.addAll(staleIds(currentEmails, requestedEmails, EmailDto::new));
+            newEmails.addAll(emailRows(brokerId, requestedEmails));
+        }
+
+        void diffPhoneNumbers(UUID brokerId, List<PhoneNumberDto> phoneNumbers,
+                              Result<Record3<UUID, String, String>> currentPhoneNumbers) {
+            List<PhoneNumberDto> requestedPhoneNumbers = phoneNumbers == null
+                    ? new ArrayList<>()
+                    : new ArrayList<>(phoneNumbers);
+            stalePhoneNumberIds.addAll(staleIds(currentPhoneNumbers, requestedPhoneNumbers, PhoneNumberDto::new));
+            newPhoneNumbers.addAll(phoneNumberRows(brokerId, requestedPhoneNumbers));
+        }
+
+        /**
+         * Sends all collected deletes and inserts to the database in one round trip.
+         */
+        void apply() {
+            List<Query> batch = new ArrayList<>(brokerUpdates);
+            if (!bumpedBrokerIds.isEmpty()) {
+                batch.add(dsl.update(BROKER)
+                        .set(BROKER.VERSION, BROKER.VERSION.plus(1))
+                        .where(BROKER.ID.eq(DSL.any(bumpedBrokerIds.toArray(UUID[]::new)))));
+            }
+            if (!staleDegrees.isEmpty()) {
+                batch.add(dsl.deleteFrom(BROKER_DEGREE)
+                        .where(DSL.row(BROKER_DEGREE.BROKER_ID, BROKER_DEGREE.DEGREE_NAME).in(staleDegrees)));
+            }
+            if (!staleEmailIds.isEmpty()) {
+                batch.add(dsl.deleteFrom(EMAIL)
+                        .where(EMAIL.ID.eq(DSL.any(staleEmailIds.toArray(UUID[]::new)))));
+            }
+            if (!stalePhoneNumberIds.isEmpty()) {
+                batch.add(dsl.deleteFrom(PHONE_NUMBER)
+                        .where(PHONE_NUMBER.ID.eq(DSL.any(stalePhoneNumberIds.toArray(UUID[]::new)))));
+            }
+            insertDegrees(batch, newDegrees);
+            insertEmails(batch, newEmails);
+            insertPhoneNumbers(batch, newPhoneNumbers);
+            execute(batch);
+        }
+    }
+
+    /**
+     * Adds a multi-row {@code INSERT ... VALUES (...), (...)} of broker degrees to the batch.
+     * Adds nothing if there are no rows.
+     */
+    private void insertDegrees(List<Query> batch, List<Row2<UUID, String>> rows) {
+        if (rows.isEmpty()) {
+            return;
+        }
+        batch.add(dsl.insertInto(BROKER_DEGREE, BROKER_DEGREE.BROKER_ID, BROKER_DEGREE.DEGREE_NAME)
+                .valuesOfRows(rows));
+    }
+
+    /**
+     * Adds a multi-row insert of broker email addresses to the batch.
+     * Adds nothing if there are no rows.
+     */
+    private void insertEmails(List<Query> batch, List<Row4<UUID, UUID, String, String>> rows) {
+        if (rows.isEmpty()) {
+            return;
+        }
+        batch.add(dsl.insertInto(EMAIL, EMAIL.ID, EMAIL.BROKER_ID, EMAIL.EMAIL_, EMAIL.TYPE)
+                .valuesOfRows(rows));
+    }
+
+    /**
+     * Adds a multi-row insert of broker phone numbers to the batch.
+     * Adds nothing if there are no rows.
+     */
+    private void insertPhoneNumbers(List<Query> batch, List<Row4<UUID, UUID, String, String>> rows) {
+        if (rows.isEmpty()) {
+            return;
+        }
+        batch.add(dsl.insertInto(PHONE_NUMBER, PHONE_NUMBER.ID, PHONE_NUMBER.BROKER_ID, PHONE_NUMBER.NUMBER, PHONE_NUMBER.TYPE)
+                .valuesOfRows(rows));
+    }
+
+    /**
+     * Executes the statements in order, in a single round trip if there are several.
+     * <p>
+     * A JDBC batch of different statements can't be prepared, so jOOQ would run it as static statements
+     * with every bind value inlined into the SQL. Instead, the statements are joined into one
+     * prepared statement that keeps its bind values; pgjdbc splits it at the semicolons and sends
+     * all parts in one message, and it still prepares them on the server once they're reused.
+     */
+    private void execute(List<Query> batch) {
+        if (batch.size() == 1) {
+            batch.get(0).execute();
+        } else if (!batch.isEmpty()) {
+            String statements = IntStream.range(0, batch.size())
+                    .mapToObj(i -> "{" + i + "}")
+                    .collect(Collectors.joining(";\n"));
+            dsl.query(statements, batch.toArray(QueryPart[]::new)).execute();
+        }
+    }
+
+    private static List<Row2<UUID, String>> degreeRows(UUID brokerId, Collection<String> degrees) {
+        return degrees == null ? List.of() : degrees.stream()
+                .map(degree -> DSL.row(brokerId, degree))
+                .toList();
+    }
+
+    private static List<Row4<UUID, UUID, String, String>> emailRows(UUID brokerId, Collection<EmailDto> emails) {
+        return emails == null ? List.of() : emails.stream()
+                .map(emailDto -> DSL.row(UuidV7.next(), brokerId, emailDto.email(), emailDto.type()))
+                .toList();
+    }
+
+    private static List<Row4<UUID, UUID, String, String>> phoneNumberRows(UUID brokerId, Collection<PhoneNumberDto> phoneNumbers) {
+        return phoneNumbers == null ? List.of() : phoneNumbers.stream()
+                .map(phoneDto -> DSL.row(UuidV7.next(), brokerId, phoneDto.number(), phoneDto.type()))
+                .toList();
+    }
+
+    /**
+     * Matches the current contact rows against the requested contacts.
+     * <p>
+     * Every requested contact matches at most one current row with the same values, so duplicates are kept
+     * as duplicates. Matched contacts are removed from {@code requested}, leaving only the ones to insert.
+     *
+     * @return IDs of the current rows that have no requested counterpart and have to be deleted
+     */
+    private static <T> List<UUID> staleIds(Result<Record3<UUID, String, String>> current, List<T> requested,
+                                           BiFunction<String, String, T> contact) {
+        List<UUID> stale = new ArrayList<>();
+        for (Record3<UUID, String, String> row : current) {
+            if (!requested.remove(contact.apply(row.value2(), row.value3()))) {
+                stale.add(row.value1());
+            }
+        }
+        return stale;
     }
 }
@@ -0,0 +1,226 @@
+package workshop_jooq.repositories;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.jooq.DSLContext;
+import org.jooq.Field;
+import org.jooq.JSONB;
+import org.jooq.Record1;
+import org.jooq.ResultQuery;
+import org.jooq.exception.DataAccessException;
+import org.jooq.impl.DSL;
+import org.jooq.impl.SQLDataType;
+import org.springframework.stereotype.Repository;
+import workshop_jooq.dtos.OfficeDto;
+import workshop_jooq.dtos.PropertyDto;
+
+import java.io.InputStream;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.UUID;
+import java.util.function.Consumer;
+
+import static jooq.generated.tables.Address.ADDRESS;
+import static jooq.generated.tables.Broker.BROKER;
+import static jooq.generated.tables.BrokerDegree.BROKER_DEGREE;
+import static jooq.generated.tables.Email.EMAIL;
+import static jooq.generated.tables.Gis.GIS;
+import static jooq.generated.tables.Image.IMAGE;
+import static jooq.generated.tables.Office.OFFICE;
+import static jooq.generated.tables.PhoneNumber.PHONE_NUMBER;
+import static jooq.generated.tables.Property.PROPERTY;
+import static org.jooq.impl.DSL.coalesce;
+import static org.jooq.impl.DSL.inline;
+import static org.jooq.impl.DSL.jsonbArray;
+import static org.jooq.impl.DSL.jsonbArrayAgg;
+import static org.jooq.impl.DSL.jsonbObject;
+import static org.jooq.impl.DSL.key;
+import static workshop_jooq.repositories.ExportRepository.PUBLIC_PRICE;
+
+/**
+ * Repository that lets PostgreSQL render export documents as JSON.
+ * <p>
+ * This class is the database-side counterpart of {@link ExportRepository}. It demonstrates:
+ * <ul>
+ *   <li>Building JSON documents with jOOQ's {@code jsonbObject()} and {@code jsonbArrayAgg()}</li>
+ *   <li>Correlated subqueries that aggregate nested collections into JSON arrays</li>
+ *   <li>Emulating Jackson's {@code @JsonInclude(NON_NULL)} with {@code jsonb_strip_nulls}</li>
+ * </ul>
+ * <p>
+ * No DTOs are created and no Jackson pass is needed: the document is handed over as the UTF-8 bytes
+ * received from the server and can be copied to the response as is. The documents keep the field names and null handling of {@link OfficeDto} and
+ * {@link PropertyDto}. Key order is not preserved, because {@code jsonb} stores keys in its own order.
+ */
+@Repository
+@RequiredArgsConstructor
+@Slf4j
+public class JsonExportRepository {
+    private final DSLContext dsl;
+
+    /**
+     * Renders detailed property information as a JSON document.
+     * <p>
+     * Only DTOs annotated with {@code @JsonInclude(NON_NULL)} get their null fields stripped, so the
+     * stripping is applied to each of those objects separately and the results are concatenated
+     * with the objects that keep their nulls (broker and coordinates).
+     *
+     * @param officeId   ID of the office that owns the property
+     * @param propertyId ID of the property to render
+     * @param consumer   Receives the JSON document shaped like {@link PropertyDto}; not called if not found
+     * @return true if the property was found
+     */
+    public boolean writePropertyByIdJson(UUID officeId, UUID propertyId, Consumer<InputStream> consumer) {
+        Field<JSONB> images = DSL.field(
+                dsl.select(coalesce(jsonbArrayAgg(IMAGE.IMAGE_URL), jsonbArray()))
+                        .from(IMAGE)
+                        .where(IMAGE.PROPERTY_ID.eq(PROPERTY.ID)));
+
+        Field<JSONB> degrees = DSL.field(
+                dsl.select(coalesce(jsonbArrayAgg(BROKER_DEGREE.DEGREE_NAME), jsonbArray()))
+                        .from(BROKER_DEGREE)
+                        .where(BROKER_DEGREE.BROKER_ID.eq(BROKER.ID)));
+
+        Field<JSONB> emails = DSL.field(
+                dsl.select(coalesce(jsonbArrayAgg(jsonbObject(
+                                key("email").value(EMAIL.EMAIL_),
+                                key("type").value(EMAIL.TYPE))), jsonbArray()))
+                        .from(EMAIL)
+                        .where(EMAIL.BROKER_ID.eq(BROKER.ID)));
+
+        Field<JSONB> phoneNumbers = DSL.field(
+                dsl.select(coalesce(jsonbArrayAgg(jsonbObject(
+                                key("number").value(PHONE_NUMBER.NUMBER),
+                                key("type").value(PHONE_NUMBER.TYPE))), jsonbArray()))
+                        .from(PHONE_NUMBER)
+                        .where(PHONE_NUMBER.BROKER_ID.eq(BROKER.ID)));
+
+        // AddressDto is NON_NULL, GisDto is not
+        Field<JSONB> address = concat(
+                stripNulls(jsonbObject(
+                        key("country").value(ADDRESS.COUNTRY),
+                        key("city").value(ADDRESS.CITY),
+                        key("street").value(ADDRESS.STREET),
+                        key("number").value(ADDRESS.NUMBER))),
+                jsonbObject(key("coordinates").value(jsonbObject(
+                        key("latitude").value(GIS.LATITUDE),
+                        key("longitude").value(GIS.LONGITUDE)))));
+
+        // BrokerDto is not NON_NULL, so all of its fields are always present
+        Field<JSONB> broker = jsonbObject(
+                key("firstName").value(BROKER.FIRST_NAME),
+                key("lastName").value(BROKER.LAST_NAME),
+                key("degreeBefore").value(degrees),
+                key("isPaidUser").value(BROKER.IS_MLS),
+                key("emails").value(emails),
+                key("phoneNumbers").value(phoneNumbers),
+                key("version").value(BROKER.VERSION));
+
+        Field<JSONB> property = concat(
+                stripNulls(jsonbObject(
+                        key("price").value(PUBLIC_PRICE),
+                        key("isPublicPrice").value(PROPERTY.IS_PUBLIC_PRICE))),
+                jsonbObject(key("images").value(images)),
+                DSL.when(ADDRESS.ID.isNotNull(), jsonbObject(key("address").value(address)))
+                        .otherwise(jsonbObject()),
+                DSL.when(BROKER.ID.isNotNull(), jsonbObject(key("broker").value(broker)))
+                        .otherwise(jsonbObject()));
+
+        return writeJson(dsl.select(property)
+                .from(PROPERTY)
+                .leftJoin(ADDRESS).on(PROPERTY.ADDRESS_ID.eq(ADDRESS.ID))
+                .leftJoin(GIS).on(ADDRESS.GIS_ID.eq(GIS.ID))
+                .leftJoin(BROKER).on(PROPERTY.BROKER_ID.eq(BROKER.ID)).and(BROKER.DELETED_AT.isNull())
+                .where(PROPERTY.ID.eq(propertyId))
+                .and(PROPERTY.OFFICE_ID.eq(officeId)), consumer);
+    }
+
+    /**
+     * Renders all offices with their contact details as a single JSON array.
+     * <p>
+     * The cooked address reproduces the Java string concatenation of {@link ExportRepository#getAllOffices()},
+     * including the literal "null" for missing address parts.
+     *
+     * @param consumer Receives the JSON array of documents shaped like {@link OfficeDto}
+     */
+    public void writeAllOfficesJson(Consumer<InputStream> consumer) {
+        Field<JSONB> emails = DSL.field(
+                dsl.select(coalesce(jsonbArrayAgg(jsonbObject(
+                                key("email").value(EMAIL.EMAIL_),
+                                key("type").value(EMAIL.TYPE))), jsonbArray()))
+                        .from(EMAIL)
+                        .where(EMAIL.OFFICE_ID.eq(OFFICE.ID)));
+
+        Field<JSONB> phoneNumbers = DSL.field(
+                dsl.select(coalesce(jsonbArrayAgg(jsonbObject(
+                                key("number").value(PHONE_NUMBER.NUMBER),
+                                key("type").value(PHONE_NUMBER.TYPE))), jsonbArray()))
+                        .from(PHONE_NUMBER)
+                        .where(PHONE_NUMBER.OFFICE_ID.eq(OFFICE.ID)));
+
+        Field<String> cookedAddress = DSL.concat(
+                coalesce(ADDRESS.COUNTRY, "null"), inline(", "),
+                coalesce(ADDRESS.CITY, "null"), inline(", "),
+                coalesce(ADDRESS.STREET, "null"), inline(", "),
+                coalesce(ADDRESS.NUMBER.cast(SQLDataType.VARCHAR), "null"));
+
+        Field<JSONB> office = concat(
+                stripNulls(jsonbObject(
+                        key("officeName").value(OFFICE.NAME),
+                        key("dateOpening").value(OFFICE.DATE_OPENING),
+                        key("tags").value(OFFICE.TAGS),
+                        key("cookedAddress").value(cookedAddress))),
+                jsonbObject(
+                        key("emails").value(emails),
+                        key("phoneNumbers").value(phoneNumbers)));
+
+        Field<JSONB> offices = coalesce(jsonbArrayAgg(office), jsonbArray());
+
+        writeJson(dsl.select(offices)
+                .from(OFFICE)
+                .leftJoin(ADDRESS).on(ADDRESS.ID.eq(OFFICE.ADDRESS_ID)), consumer);
+    }
+
+    /**
+     * Hands the document selected by the query to the consumer, as the bytes pgjdbc received from the server.
+     * <p>
+     * The document is never decoded into a {@code String} or copied into another array; the stream reads
+     * the driver's row buffer. pgjdbc receives a row completely before it can be read, so one copy of the
+     * document is still held in memory while it's consumed.
+     *
+     * @return false if the query returned no document
+     */
+    private static boolean writeJson(ResultQuery<Record1<JSONB>> query, Consumer<InputStream> consumer) {
+        try (ResultSet rs = query.fetchResultSet()) {
+            if (!rs.next()) {
+                return false;
+            }
+            InputStream json = rs.getBinaryStream(1);
+            if (json == null) {
+                return false;
+            }
+            consumer.accept(json);
+            return true;
+        } catch (SQLException e) {
+            throw new DataAccessException("Reading the JSON document failed", e);
+        }
+    }
+
+    /**
+     * Removes all object fields with null values, recursively.
+     */
+    private static Field<JSONB> stripNulls(Field<JSONB> json) {
+        return DSL.function("jsonb_strip_nulls", SQLDataType.JSONB, json);
+    }
+
+    /**
+     * Merges JSON objects with the {@code ||} operator, later keys win.
+     */
+    @SafeVarargs
+    private static Field<JSONB> concat(Field<JSONB>... objects) {
+        Field<JSONB> result = objects[0];
+        for (int i = 1; i < objects.length; i++) {
+            result = DSL.field("{0} || {1}", SQLDataType.JSONB, result, objects[i]);
+        }
+        return result;
+    }
+}
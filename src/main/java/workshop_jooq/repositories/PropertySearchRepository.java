@@ -0,0 +1,259 @@
+package workshop_jooq.repositories;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.jooq.Condition;
+import org.jooq.DSLContext;
+import org.jooq.Field;
+import org.jooq.Record;
+import org.jooq.SelectLimitStep;
+import org.jooq.SortField;
+import org.jooq.impl.DSL;
+import org.springframework.stereotype.Repository;
+import workshop_jooq.dtos.FacetCountDto;
+import workshop_jooq.dtos.PriceBandCountDto;
+import workshop_jooq.dtos.PropertyFacetsDto;
+import workshop_jooq.dtos.PropertySearchFilterDto;
+import workshop_jooq.dtos.PropertySummaryDto;
+import workshop_jooq.enam.PropertySearchSort;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.UUID;
+
+import static jooq.generated.tables.Address.ADDRESS;
+import static jooq.generated.tables.Image.IMAGE;
+import static jooq.generated.tables.Office.OFFICE;
+import static jooq.generated.tables.Property.PROPERTY;
+import static workshop_jooq.repositories.ExportRepository.PUBLIC_PRICE;
+
+/**
+ * Repository for searching properties across all offices.
+ * <p>
+ * This class demonstrates:
+ * <ul>
+ *   <li>Composing the {@code WHERE} clause from optional filters with {@link DSL#noCondition()}</li>
+ *   <li>Keyset pagination with {@code seek()} for several sort orders</li>
+ *   <li>Sort orders that match composite indexes, so a page is read in index order and the scan stops at the limit</li>
+ *   <li>Counting several facets in one pass with {@code GROUPING SETS} and telling them apart with {@code GROUPING()}</li>
+ * </ul>
+ * <p>
+ * Absent filters contribute no predicate at all, so the statement PostgreSQL plans only contains what
+ * was asked for. The price and recency orders are backed by {@code idx_property_public_price},
+ * {@code idx_property_created_at} and their per-office variants; city and country filters use
+ * {@code idx_address_city} and {@code idx_address_country_city}.
+ * <p>
+ * The city order is deliberately left without an index: it sorts by a column of {@code address} and then
+ * by the ID of {@code property}, and an index can't span two tables. PostgreSQL sorts the matching rows
+ * instead, keeping only the best page in memory, so the cost grows with the number of matches rather than
+ * with the page size; filters that narrow the search keep it cheap.
+ */
+@Repository
+@RequiredArgsConstructor
+@Slf4j
+public class PropertySearchRepository {
+    /**
+     * City as used for sorting: properties without a city sort as an empty city, because a seek predicate can't compare NULLs.
+     * No index backs this order, see the class comment.
+     */
+    private static final Field<String> SORT_CITY = DSL.coalesce(ADDRESS.CITY, DSL.inline(""));
+
+    /**
+     * Tag of the property's office, one row per tag, from the lateral {@code unnest} of {@code office.tags}.
+     */
+    private static final Field<String> OFFICE_TAG = DSL.field(DSL.name("office_tag", "tag"), String.class);
+
+    private final DSLContext dsl;
+
+    /**
+     * Retrieves one page of properties matching the filters.
+     *
+     * @param filter     Filters to apply
+     * @param sort       Sort order
+     * @param afterValue Sort value of the last property of the previous page, or null for the first page:
+     *                   the price, the city or the creation time, depending on the sort order
+     * @param afterId    ID of the last property of the previous page, or null for the first page
+     * @param limit      Maximum number of properties to return
+     * @return Properties in the requested order
+     */
+    public List<PropertySummaryDto> search(PropertySearchFilterDto filter, PropertySearchSort sort, Object afterValue, UUID afterId, int limit) {
+        var ordered = dsl.select(
+                        PROPERTY.ID,
+                        PROPERTY.OFFICE_ID,
+                        PUBLIC_PRICE.as(PROPERTY.PRICE),
+                        PROPERTY.CREATED_AT,
+                        ADDRESS.COUNTRY,
+                        ADDRESS.CITY,
+                        ADDRESS.STREET,
+                        ADDRESS.NUMBER
+                )
+                .from(PROPERTY)
+                .leftJoin(ADDRESS).on(PROPERTY.ADDRESS_ID.eq(ADDRESS.ID))
+                .where(matching(filter))
+                .and(sortable(sort))
+                .orderBy(orderBy(sort));
+
+        // On the first page there is nothing to seek after
+        SelectLimitStep<? extends Record> page = afterId == null
+                ? ordered
+                : ordered.seek(afterValue, afterId);
+
+        return page
+                .limit(limit)
+                .fetch(r -> new PropertySummaryDto(
+                        r.get(PROPERTY.ID),
+                        r.get(PROPERTY.OFFICE_ID),
+                        r.get(PROPERTY.PRICE),
+                        r.get(ADDRESS.COUNTRY),
+                        r.get(ADDRESS.CITY),
+                        r.get(ADDRESS.STREET),
+                        r.get(ADDRESS.NUMBER),
+                        r.get(PROPERTY.CREATED_AT)));
+    }
+
+    /**
+     * Counts all properties matching the filters, as listed by {@link #search} in the given sort order.
+     *
+     * @param filter Filters to apply
+     * @param sort   Sort order, which may exclude properties without a sort value
+     * @return Total number of properties
+     */
+    public int count(PropertySearchFilterDto filter, PropertySearchSort sort) {
+        return dsl.fetchCount(
+                dsl.selectOne()
+                        .from(PROPERTY)
+                        .leftJoin(ADDRESS).on(PROPERTY.ADDRESS_ID.eq(ADDRESS.ID))
+                        .where(matching(filter))
+                        .and(sortable(sort)));
+    }
+
+    /**
+     * Counts the properties matching the filters by city, price band and office tag, with a single statement.
+     * <p>
+     * The facets are the grouping sets {@code (city)}, {@code (price band)}, {@code (tag)} and {@code ()} of one
+     * {@code GROUP BY}, so PostgreSQL scans the matching properties once instead of once per facet; the empty set
+     * yields the total. {@code GROUPING()} tells which set a row belongs to, because a grouped column can itself
+     * be NULL. Joining the office tags repeats a property once per tag, so properties are counted distinctly.
+     *
+     * @param filter     Filters to apply
+     * @param priceBands Ascending upper bounds of the price bands; prices from the last bound up form the last band
+     * @param maxValues  Maximum number of cities and of office tags to return, most frequent first
+     * @return Total and per-facet counts
+     */
+    public PropertyFacetsDto facets(PropertySearchFilterDto filter, Integer[] priceBands, int maxValues) {
+        // Bounds are inlined: a bind parameter would make the grouped expression differ from the selected one
+        Field<Integer> priceBand = DSL.field("width_bucket({0}, {1})", Integer.class, PUBLIC_PRICE, DSL.inline(priceBands));
+        Field<Integer> byCity = DSL.grouping(ADDRESS.CITY).as("by_city");
+        Field<Integer> byPriceBand = DSL.grouping(priceBand).as("by_price_band");
+        Field<Integer> byOfficeTag = DSL.grouping(OFFICE_TAG).as("by_office_tag");
+        Field<Integer> count = DSL.countDistinct(PROPERTY.ID).as("count");
+
+        var rows = dsl.select(ADDRESS.CITY, priceBand.as("price_band"), OFFICE_TAG, byCity, byPriceBand, byOfficeTag, count)
+                .from(PROPERTY)
+                .leftJoin(ADDRESS).on(PROPERTY.ADDRESS_ID.eq(ADDRESS.ID))
+                .leftJoin(OFFICE).on(PROPERTY.OFFICE_ID.eq(OFFICE.ID))
+                .leftJoin(DSL.lateral(DSL.unnest(OFFICE.TAGS).as("office_tag", "tag"))).on(DSL.trueCondition())
+                .where(matching(filter))
+                .groupBy(DSL.groupingSets(
+                        new Field<?>[]{ADDRESS.CITY},
+                        new Field<?>[]{priceBand},
+                        new Field<?>[]{OFFICE_TAG},
+                        new Field<?>[]{}))
+                .fetch();
+
+        long total = 0;
+        List<FacetCountDto> cities = new ArrayList<>();
+        List<PriceBandCountDto> bands = new ArrayList<>();
+        List<FacetCountDto> officeTags = new ArrayList<>();
+        for (var row : rows) {
+            long rowCount = row.get(count);
+            if (row.get(byCity) == 0) {
+                if (row.get(ADDRESS.CITY) != null) {
+                    cities.add(new FacetCountDto(row.get(ADDRESS.CITY), rowCount));
+                }
+            } else if (row.get(byPriceBand) == 0) {
+                // Hidden prices have no band; bucket i lies between bounds i - 1 and i
+                Integer bucket = row.get("price_band", Integer.class);
+                if (bucket != null) {
+                    bands.add(new PriceBandCountDto(
+                            bucket == 0 ? null : priceBands[bucket - 1],
+                            bucket == priceBands.length ? null : priceBands[bucket],
+                            rowCount));
+                }
+            } else if (row.get(byOfficeTag) == 0) {
+                if (row.get(OFFICE_TAG) != null) {
+                    officeTags.add(new FacetCountDto(row.get(OFFICE_TAG), rowCount));
+                }
+            } else {
+                total = rowCount;
+            }
+        }
+        bands.sort(Comparator.comparing(PriceBandCountDto::fromPrice, Comparator.nullsFirst(Comparator.naturalOrder())));
+        return new PropertyFacetsDto(total, mostFrequent(cities, maxValues), bands, mostFrequent(officeTags, maxValues));
+    }
+
+    private static List<FacetCountDto> mostFrequent(List<FacetCountDto> counts, int limit) {
+        return counts.stream()
+                .sorted(Comparator.comparingLong(FacetCountDto::count).reversed().thenComparing(FacetCountDto::value))
+                .limit(limit)
+                .toList();
+    }
+
+    /**
+     * Builds the condition for the filters; filters that aren't set are left out entirely.
+     */
+    private static Condition matching(PropertySearchFilterDto filter) {
+        Condition condition = DSL.noCondition();
+        if (filter.officeId() != null) {
+            condition = condition.and(PROPERTY.OFFICE_ID.eq(filter.officeId()));
+        }
+        if (filter.country() != null) {
+            condition = condition.and(ADDRESS.COUNTRY.eq(filter.country()));
+        }
+        if (filter.city() != null) {
+            condition = condition.and(ADDRESS.CITY.eq(filter.city()));
+        }
+        // Hidden prices must not be revealed by narrowing a price range, so a range only matches public prices
+        if (filter.publicPriceOnly() || filter.minPrice() != null || filter.maxPrice() != null) {
+            condition = condition.and(PROPERTY.IS_PUBLIC_PRICE.isTrue());
+        }
+        if (filter.minPrice() != null) {
+            condition = condition.and(PROPERTY.PRICE.ge(filter.minPrice()));
+        }
+        if (filter.maxPrice() != null) {
+            condition = condition.and(PROPERTY.PRICE.le(filter.maxPrice()));
+        }
+        if (filter.hasImages() != null) {
+            Condition images = DSL.exists(DSL.selectOne().from(IMAGE).where(IMAGE.PROPERTY_ID.eq(PROPERTY.ID)));
+            condition = condition.and(filter.hasImages() ? images : DSL.not(images));
+        }
+        return condition;
+    }
+
+    /**
+     * Restricts the result to properties that have a value for the sort key.
+     * <p>
+     * The order of hidden prices would leak them, so sorting by price lists public prices only;
+     * a seek predicate can't compare NULLs, so sorting by recency skips properties without a creation time.
+     */
+    private static Condition sortable(PropertySearchSort sort) {
+        return switch (sort) {
+            case PRICE_ASC, PRICE_DESC -> PROPERTY.IS_PUBLIC_PRICE.isTrue();
+            case CITY -> DSL.noCondition();
+            case NEWEST -> PROPERTY.CREATED_AT.isNotNull();
+        };
+    }
+
+    /**
+     * Sort fields of an order, each followed by the property ID in the same direction to make the order unique.
+     */
+    private static SortField<?>[] orderBy(PropertySearchSort sort) {
+        return switch (sort) {
+            case PRICE_ASC -> new SortField<?>[]{PROPERTY.PRICE.asc(), PROPERTY.ID.asc()};
+            case PRICE_DESC -> new SortField<?>[]{PROPERTY.PRICE.desc(), PROPERTY.ID.desc()};
+            case CITY -> new SortField<?>[]{SORT_CITY.asc(), PROPERTY.ID.asc()};
+            case NEWEST -> new SortField<?>[]{PROPERTY.CREATED_AT.desc(), PROPERTY.ID.desc()};
+        };
+    }
+}
@@ -0,0 +1,264 @@
+package workshop_jooq.services;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.jooq.DSLContext;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ResponseStatusException;
+import workshop_jooq.dtos.BrokerDto;
+import workshop_jooq.repositories.ImportRepository;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Group commit for concurrent broker writes.
+ * <p>
+ * Callers hand their write to a single committer thread and block until it's done. The committer
+ * collects the writes that arrive within a short window, up to a maximum group size, and runs the whole
+ * group in one transaction, in the order the writes were submitted: consecutive creates go through the multi-row
+ * path of {@link ImportRepository#createBrokers(List)} together, updates are executed one by one between them.
+ * Creates are upserts by external ID and may hit the broker of a queued update, so they are never moved
+ * ahead of an earlier update. Under load, hundreds of commits become a handful.
+ * <p>
+ * Every caller still gets its own result or exception. If a group fails, it's rolled back and its writes
+ * are retried one by one, each in its own transaction, so a single bad write only fails its own caller.
+ * The price is a latency of up to one window for every write, and all grouped writes pass through a single
+ * thread, which is why group commit is disabled by default.
+ * <p>
+ * No caller waits forever: a write that isn't committed within {@code import.brokers.group-commit.timeout},
+ * e.g. because the committer thread died, fails with 503, and writes submitted during shutdown are rejected.
+ * A timed-out write may still be committed later, so its outcome is unknown to the caller.
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class BrokerGroupCommitter {
+    private final ImportRepository importRepository;
+    private final DSLContext dsl;
+
+    /**
+     * How long the committer waits for more writes after the first write of a group has arrived.
+     */
+    @Value("${import.brokers.group-commit.window:2ms}")
+    private Duration window;
+
+    /**
+     * Maximum number of writes committed together.
+     */
+    @Value("${import.brokers.group-commit.max-group-size:100}")
+    private int maxGroupSize;
+
+    /**
+     * How long a caller waits for its write to be committed at most.
+     */
+    @Value("${import.brokers.group-commit.timeout:30s}")
+    private Duration timeout;
+
+    /**
+     * A write waiting for its group, with the office and version the caller submitted: the repository
+     * overwrites both on the DTO, and a write replayed after a failed group has to start from them again.
+     */
+    private record PendingWrite(BrokerDto broker, boolean create, UUID officeId, Long expectedVersion,
+                                CompletableFuture<BrokerDto> result) {
+        PendingWrite(BrokerDto broker, boolean create) {
+            this(broker, create, broker.getOfficeId(), broker.getVersion(), new CompletableFuture<>());
+        }
+
+        /**
+         * Undoes what a rolled-back group wrote into the DTO.
+         */
+        void reset() {
+            broker.setOfficeId(officeId);
+            broker.setVersion(expectedVersion);
+        }
+    }
+
+    private final BlockingQueue<PendingWrite> queue = new LinkedBlockingQueue<>();
+    private Thread committer;
+    private volatile boolean stopped;
+
+    @PostConstruct
+    void start() {
+        committer = new Thread(this::run, "broker-group-commit");
+        committer.setDaemon(true);
+        committer.start();
+    }
+
+    @PreDestroy
+    void stop() throws InterruptedException {
+        stopped = true;
+        committer.interrupt();
+        committer.join(TimeUnit.SECONDS.toMillis(10));
+
+        // Writes that slipped in after the committer drained the queue; any later ones time out
+        List<PendingWrite> remaining = new ArrayList<>();
+        queue.drainTo(remaining);
+        remaining.forEach(write -> write.result().completeExceptionally(shuttingDown()));
+    }
+
+    /**
+     * Creates a broker as part of the next group commit.
+     *
+     * @param brokerDto DTO containing the broker information to create
+     * @return The created broker DTO with assigned ID
+     */
+    public BrokerDto createBroker(BrokerDto brokerDto) {
+        return await(submitCreate(brokerDto));
+    }
+
+    /**
+     * Updates a broker as part of the next group commit.
+     *
+     * @param brokerDto DTO containing the updated broker information
+     * @return The updated broker DTO
+     */
+    public BrokerDto updateBroker(BrokerDto brokerDto) {
+        return await(submitUpdate(brokerDto));
+    }
+
+    /**
+     * Queues a broker create without waiting for it.
+     *
+     * @param brokerDto DTO containing the broker information to create
+     * @return Future completed with the created broker after its group has been committed
+     */
+    public CompletableFuture<BrokerDto> submitCreate(BrokerDto brokerDto) {
+        return submit(new PendingWrite(brokerDto, true));
+    }
+
+    /**
+     * Queues a broker update without waiting for it.
+     * Writes are committed in the order they were submitted.
+     *
+     * @param brokerDto DTO containing the updated broker information
+     * @return Future completed with the updated broker after its group has been committed
+     */
+    public CompletableFuture<BrokerDto> submitUpdate(BrokerDto brokerDto) {
+        return submit(new PendingWrite(brokerDto, false));
+    }
+
+    private CompletableFuture<BrokerDto> submit(PendingWrite write) {
+        if (stopped) {
+            return CompletableFuture.failedFuture(shuttingDown());
+        }
+        queue.add(write);
+        return write.result()
+                .orTimeout(timeout.toMillis(), TimeUnit.MILLISECONDS)
+                .exceptionallyCompose(error -> CompletableFuture.failedFuture(error instanceof TimeoutException
+                        ? new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE,
+                        "Broker write wasn't committed within " + timeout + ", its outcome is unknown", error)
+                        : error));
+    }
+
+    private static ResponseStatusException shuttingDown() {
+        return new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Broker writes aren't accepted, the application is shutting down");
+    }
+
+    /**
+     * Waits for a write to be committed, rethrowing the write's own exception.
+     */
+    private static BrokerDto await(CompletableFuture<BrokerDto> result) {
+        try {
+            return result.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    private void run() {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                List<PendingWrite> group = new ArrayList<>(maxGroupSize);
+                group.add(queue.take());
+
+                long deadline = System.nanoTime() + window.toNanos();
+                while (group.size() < maxGroupSize) {
+                    PendingWrite next = queue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    group.add(next);
+                }
+                commit(group);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        // Writes that arrived during shutdown are executed without grouping, so no caller waits forever
+        List<PendingWrite> remaining = new ArrayList<>();
+        queue.drainTo(remaining);
+        remaining.forEach(this::commitAlone);
+    }
+
+    /**
+     * Commits a group in one transaction, falling back to one transaction per write if the group fails.
+     * Writes are applied in submission order; only runs of consecutive creates are combined.
+     */
+    private void commit(List<PendingWrite> group) {
+        if (group.size() == 1) {
+            commitAlone(group.get(0));
+            return;
+        }
+        try {
+            dsl.transaction(configuration -> {
+                List<BrokerDto> creates = new ArrayList<>();
+                for (PendingWrite write : group) {
+                    if (write.create()) {
+                        creates.add(write.broker());
+                    } else {
+                        createAll(creates);
+                        importRepository.updateBroker(write.broker());
+                    }
+                }
+                createAll(creates);
+            });
+        } catch (RuntimeException e) {
+            log.debug("Group commit of {} broker writes failed, retrying them one by one", group.size(), e);
+            // Without the reset, an update that succeeded in the rolled-back group would expect its new version and fail
+            group.forEach(write -> {
+                write.reset();
+                commitAlone(write);
+            });
+            return;
+        }
+        // Completed only after the commit, so callers never see uncommitted data
+        group.forEach(write -> write.result().complete(write.broker()));
+    }
+
+    /**
+     * Creates a run of consecutive brokers with one multi-row write and starts the next run.
+     */
+    private void createAll(List<BrokerDto> creates) {
+        if (!creates.isEmpty()) {
+            importRepository.createBrokers(List.copyOf(creates));
+            creates.clear();
+        }
+    }
+
+    private void commitAlone(PendingWrite write) {
+        try {
+            write.result().complete(write.create()
+                    ? importRepository.createBroker(write.broker())
+                    : importRepository.updateBroker(write.broker()));
+        } catch (RuntimeException e) {
+            write.result().completeExceptionally(e);
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package workshop_jooq.services;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import workshop_jooq.dtos.BrokerPurgeStatusDto;
+import workshop_jooq.repositories.BrokerPurgeRepository;
+
+import java.time.Duration;
+import java.time.OffsetDateTime;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * Background job that purges soft-deleted brokers.
+ * <p>
+ * Brokers are purged one at a time, oldest deletion first. For each broker, the properties are detached
+ * and the emails, phone numbers and degrees are deleted in chunks of bounded size, each chunk in its own
+ * short transaction, with a pause after every chunk so the job never saturates the database. Only then
+ * is the broker row itself deleted.
+ * <p>
+ * The job wakes up when a broker is soft-deleted and otherwise polls at a long interval, which also
+ * picks up brokers left over by a restart. A purge is idempotent, so an interrupted one simply resumes.
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class BrokerPurgeJob {
+    private final BrokerPurgeRepository brokerPurgeRepository;
+
+    /**
+     * Maximum number of rows touched by one chunk.
+     */
+    @Value("${import.brokers.purge.chunk-size:1000}")
+    private int chunkSize;
+
+    /**
+     * Pause after every chunk that touched rows.
+     */
+    @Value("${import.brokers.purge.pause:100ms}")
+    private Duration pause;
+
+    /**
+     * How often to look for soft-deleted brokers when the job hasn't been woken up.
+     */
+    @Value("${import.brokers.purge.idle-interval:1m}")
+    private Duration idleInterval;
+
+    private final AtomicLong brokersPurged = new AtomicLong();
+    private final AtomicLong propertiesDetached = new AtomicLong();
+    private final AtomicLong emailsDeleted = new AtomicLong();
+    private final AtomicLong phoneNumbersDeleted = new AtomicLong();
+    private final AtomicLong degreesDeleted = new AtomicLong();
+    private volatile UUID currentBrokerId;
+    private volatile OffsetDateTime lastPurgedAt;
+    private volatile String lastError;
+
+    private Thread worker;
+
+    @PostConstruct
+    void start() {
+        worker = new Thread(this::run, "broker-purge");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    @PreDestroy
+    void stop() throws InterruptedException {
+        worker.interrupt();
+        worker.join(TimeUnit.SECONDS.toMillis(10));
+    }
+
+    /**
+     * Starts purging right away instead of at the next poll.
+     */
+    public void wakeUp() {
+        LockSupport.unpark(worker);
+    }
+
+    /**
+     * Returns the progress of the job.
+     *
+     * @return Pending brokers, the broker being purged and the cumulative counters
+     */
+    public BrokerPurgeStatusDto status() {
+        return new BrokerPurgeStatusDto(
+                brokerPurgeRepository.countDeletedBrokers(),
+                currentBrokerId,
+                brokersPurged.get(),
+                propertiesDetached.get(),
+                emailsDeleted.get(),
+                phoneNumbersDeleted.get(),
+                degreesDeleted.get(),
+                lastPurgedAt,
+                lastError);
+    }
+
+    private void run() {
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                Optional<UUID> brokerId = brokerPurgeRepository.findNextDeletedBroker();
+                if (brokerId.isEmpty()) {
+                    // Returns early when woken up or interrupted
+                    LockSupport.parkNanos(this, idleInterval.toNanos());
+                    continue;
+                }
+                purge(brokerId.get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (RuntimeException e) {
+                log.warn("Purging soft-deleted brokers failed, retrying later", e);
+                lastError = e.getMessage();
+                currentBrokerId = null;
+                LockSupport.parkNanos(this, idleInterval.toNanos());
+            }
+        }
+    }
+
+    private void purge(UUID brokerId) throws InterruptedException {
+        currentBrokerId = brokerId;
+        log.debug("Purging soft-deleted broker {}", brokerId);
+
+        inChunks(limit -> brokerPurgeRepository.detachProperties(brokerId, limit), propertiesDetached);
+        inChunks(limit -> brokerPurgeRepository.deleteEmails(brokerId, limit), emailsDeleted);
+        inChunks(limit -> brokerPurgeRepository.deletePhoneNumbers(brokerId, limit), phoneNumbersDeleted);
+        inChunks(limit -> brokerPurgeRepository.deleteDegrees(brokerId, limit), degreesDeleted);
+
+        if (brokerPurgeRepository.deleteBroker(brokerId)) {
+            brokersPurged.incrementAndGet();
+            lastPurgedAt = OffsetDateTime.now();
+            log.info("Soft-deleted broker {} was purged", brokerId);
+        }
+        currentBrokerId = null;
+    }
+
+    /**
+     * Repeats a chunk until it touches fewer rows than the chunk size, pausing after every chunk that did work.
+     */
+    private void inChunks(IntUnaryOperator chunk, AtomicLong counter) throws InterruptedException {
+        int affected;
+        do {
+            affected = chunk.applyAsInt(chunkSize);
+            counter.addAndGet(affected);
+            if (affected > 0) {
+                Thread.sleep(pause.toMillis());
+            }
+        } while (affected == chunkSize);
+    }
+}
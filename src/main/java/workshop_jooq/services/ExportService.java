@@ -1,14 +1,44 @@
 package workshop_jooq.services;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import jakarta.annotation.PostConstruct;
 import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.domain.Page;
+import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Service;
+import org.springframework.web.server.ResponseStatusException;
+import workshop_jooq.dtos.CacheStatsDto;
+import workshop_jooq.dtos.CursorPageDto;
 import workshop_jooq.dtos.OfficeDto;
+import workshop_jooq.dtos.OfficeWithBrokersDto;
+import workshop_jooq.dtos.PropertyClusterDto;
 import workshop_jooq.dtos.PropertyDto;
+import workshop_jooq.dtos.PropertyFacetsDto;
+import workshop_jooq.dtos.PropertyLocationDto;
+import workshop_jooq.dtos.PropertySearchFilterDto;
+import workshop_jooq.dtos.PropertySummaryDto;
+import workshop_jooq.enam.PropertySearchSort;
+import workshop_jooq.repositories.CatalogExportRepository;
 import workshop_jooq.repositories.ExportRepository;
+import workshop_jooq.repositories.GeoSearchRepository;
+import workshop_jooq.repositories.JsonExportRepository;
+import workshop_jooq.repositories.PropertySearchRepository;
 
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
+import java.util.function.Consumer;
 
 /**
  * Service for exporting data from the application.
@@ -25,17 +55,143 @@ import java.util.UUID;
 @Service
 @RequiredArgsConstructor
 public class ExportService {
+    private static final PropertySearchFilterDto UNFILTERED = new PropertySearchFilterDto(null, null, null, null, null, false, null);
+
     private final ExportRepository exportRepository;
+    private final JsonExportRepository jsonExportRepository;
+    private final CatalogExportRepository catalogExportRepository;
+    private final GeoSearchRepository geoSearchRepository;
+    private final PropertySearchRepository propertySearchRepository;
+    private final PropertyDetailCache propertyDetailCache;
+    private final ExportVersions exportVersions;
+
+    /**
+     * Whether property details are built with one statement instead of several sequential queries.
+     * Both strategies return the same DTO graph; the switch exists to benchmark them against each other.
+     */
+    @Value("${export.property.single-query:true}")
+    private boolean propertySingleQuery;
+
+    /**
+     * Number of office rows fetched per round trip when offices are streamed.
+     */
+    @Value("${export.offices.stream-fetch-size:500}")
+    private int officesStreamFetchSize;
+
+    /**
+     * Number of offices loaded per statement when the full office hierarchy is exported.
+     */
+    @Value("${export.offices.hierarchy-batch-size:50}")
+    private int officesHierarchyBatchSize;
+
+    /**
+     * Number of grid cells per map tile edge when properties are clustered; a tile is 256 pixels wide.
+     */
+    @Value("${export.map.cells-per-tile:4}")
+    private int mapCellsPerTile;
+
+    /**
+     * Upper bound for the number of clusters returned for one bounding box.
+     */
+    @Value("${export.map.max-clusters:1024}")
+    private int mapMaxClusters;
+
+    /**
+     * Upper bounds of the price bands counted by the search facets.
+     */
+    @Value("${export.search.facets.price-bands:100000,250000,500000,1000000}")
+    private Integer[] facetPriceBands;
+
+    /**
+     * Maximum number of cities and of office tags returned by the search facets.
+     */
+    @Value("${export.search.facets.max-values:20}")
+    private int facetMaxValues;
+
+    /**
+     * How long the facets of the unfiltered search are served from memory.
+     */
+    @Value("${export.search.facets.time-to-live:30s}")
+    private Duration facetTimeToLive;
+
+    private Cache<PropertySearchFilterDto, PropertyFacetsDto> unfilteredFacets;
+
+    @PostConstruct
+    void init() {
+        // width_bucket() requires ascending bounds
+        Arrays.sort(facetPriceBands);
+        unfilteredFacets = Caffeine.newBuilder()
+                .maximumSize(1)
+                .expireAfterWrite(facetTimeToLive)
+                .build();
+    }
 
     /**
      * Retrieves detailed information about a property.
+     * <p>
+     * Property details are served from {@link PropertyDetailCache} and only loaded from the database on a miss.
      *
      * @param officeId   ID of the office that owns the property
      * @param propertyId ID of the property to retrieve
      * @return Complete property DTO with all related information
      */
     public PropertyDto getPropertyById(UUID officeId, UUID propertyId) {
-        return exportRepository.getPropertyById(officeId, propertyId);
+        return propertyDetailCache.get(officeId, propertyId, () -> {
+            if (propertySingleQuery) {
+                return exportRepository.getPropertyByIdSingleQuery(officeId, propertyId);
+            }
+            return exportRepository.getPropertyById(officeId, propertyId);
+        });
+    }
+
+    /**
+     * Retrieves detailed information about several properties at once.
+     *
+     * @param officeId    ID of the office that owns the properties
+     * @param propertyIds IDs of the properties to retrieve
+     * @return Map of property ID to property DTO, in the requested order; unknown IDs are omitted
+     */
+    public Map<UUID, PropertyDto> getPropertiesByIds(UUID officeId, List<UUID> propertyIds) {
+        // Cached properties are served from memory, the rest is loaded with one set-based query
+        Map<UUID, PropertyDto> found = propertyDetailCache.getAll(officeId, propertyIds,
+                missingIds -> exportRepository.getPropertiesByIds(officeId, missingIds));
+
+        Map<UUID, PropertyDto> properties = new LinkedHashMap<>();
+        for (UUID propertyId : propertyIds) {
+            PropertyDto property = found.get(propertyId);
+            if (property != null) {
+                properties.put(propertyId, property);
+            }
+        }
+        return properties;
+    }
+
+    /**
+     * Returns the current data version of an office's property details, without querying the database.
+     *
+     * @param officeId ID of the office that owns the properties
+     * @return Opaque version string usable as an ETag
+     */
+    public String getPropertyVersion(UUID officeId) {
+        return exportVersions.propertyVersion(officeId);
+    }
+
+    /**
+     * Returns the current data version of the office list, without querying the database.
+     *
+     * @return Opaque version string usable as an ETag
+     */
+    public String getOfficesVersion() {
+        return exportVersions.officesVersion();
+    }
+
+    /**
+     * Retrieves the counters of the property detail cache.
+     *
+     * @return Cache statistics
+     */
+    public CacheStatsDto getPropertyCacheStats() {
+        return propertyDetailCache.stats();
     }
 
     /**
@@ -51,6 +207,110 @@ public class ExportService {
         return exportRepository.getPropertiesShortInfoForBroker(officeId, brokerId, pageSize, pageNumber);
     }
 
+    /**
+     * Retrieves one page of properties for a specific broker using keyset pagination.
+     * <p>
+     * The cursor is an opaque, URL-safe token that encodes the sort key (city, id) of the last
+     * property of the previous page. One extra row is fetched to find out whether another page exists.
+     *
+     * @param officeId     ID of the office
+     * @param brokerId     ID of the broker whose properties to retrieve
+     * @param pageSize     Number of records per page
+     * @param cursor       Token returned with the previous page, or null for the first page
+     * @param includeTotal Whether the total number of properties should be counted as well
+     * @return Page of property DTOs with the token for the next page
+     */
+    public CursorPageDto<PropertyDto> getPropertiesShortInfoForBroker(UUID officeId, UUID brokerId, int pageSize, String cursor, boolean includeTotal) {
+        String afterCity = null;
+        UUID afterId = null;
+        if (cursor != null && !cursor.isBlank()) {
+            String[] key = decodeCursor(cursor);
+            afterId = UUID.fromString(key[0]);
+            afterCity = key[1];
+        }
+
+        List<PropertyDto> properties = exportRepository.getPropertiesShortInfoForBrokerAfter(officeId, brokerId, pageSize + 1, afterCity, afterId);
+
+        CursorPageDto<PropertyDto> page = new CursorPageDto<>();
+        if (properties.size() > pageSize) {
+            properties = properties.subList(0, pageSize);
+            PropertyDto last = properties.get(pageSize - 1);
+            page.setNextCursor(encodeCursor(last.getId(), last.getAddress().getCity()));
+        }
+        page.setContent(properties);
+
+        if (includeTotal) {
+            page.setTotalElements((long) exportRepository.countPropertiesForBroker(officeId, brokerId));
+        }
+        return page;
+    }
+
+    /**
+     * Searches properties across offices with optional filters, one keyset page at a time.
+     * <p>
+     * The cursor encodes the sort order and the sort key of the last property of the previous page,
+     * so a cursor can't be continued with another order. One extra row is fetched to find out
+     * whether another page exists.
+     *
+     * @param filter       Filters to apply
+     * @param sort         Sort order
+     * @param pageSize     Number of records per page
+     * @param cursor       Token returned with the previous page, or null for the first page
+     * @param includeTotal Whether the total number of matching properties should be counted as well
+     * @return Page of properties with the token for the next page
+     */
+    public CursorPageDto<PropertySummaryDto> searchProperties(PropertySearchFilterDto filter, PropertySearchSort sort, int pageSize, String cursor, boolean includeTotal) {
+        if (filter.minPrice() != null && filter.maxPrice() != null && filter.minPrice() > filter.maxPrice()) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "minPrice must not be greater than maxPrice");
+        }
+
+        Object afterValue = null;
+        UUID afterId = null;
+        if (cursor != null && !cursor.isBlank()) {
+            String[] key = decodeSearchCursor(cursor, sort);
+            afterId = UUID.fromString(key[1]);
+            afterValue = switch (sort) {
+                case PRICE_ASC, PRICE_DESC -> Integer.valueOf(key[2]);
+                case CITY -> key[2];
+                case NEWEST -> OffsetDateTime.parse(key[2]);
+            };
+        }
+
+        List<PropertySummaryDto> properties = propertySearchRepository.search(filter, sort, afterValue, afterId, pageSize + 1);
+
+        CursorPageDto<PropertySummaryDto> page = new CursorPageDto<>();
+        if (properties.size() > pageSize) {
+            properties = properties.subList(0, pageSize);
+            page.setNextCursor(encodeSearchCursor(sort, properties.get(pageSize - 1)));
+        }
+        page.setContent(properties);
+
+        if (includeTotal) {
+            page.setTotalElements((long) propertySearchRepository.count(filter, sort));
+        }
+        return page;
+    }
+
+    /**
+     * Counts the properties matching the filters by city, price band and office tag.
+     * <p>
+     * All facets come from one statement. The unfiltered facets are what every search page shows first,
+     * so they're cached for {@code export.search.facets.time-to-live}; counts may lag behind writes by that long.
+     * Filtered facets are too diverse to be worth caching and are always computed.
+     *
+     * @param filter Filters to apply
+     * @return Total and per-facet counts
+     */
+    public PropertyFacetsDto getPropertyFacets(PropertySearchFilterDto filter) {
+        if (filter.minPrice() != null && filter.maxPrice() != null && filter.minPrice() > filter.maxPrice()) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "minPrice must not be greater than maxPrice");
+        }
+        if (UNFILTERED.equals(filter)) {
+            return unfilteredFacets.get(UNFILTERED, key -> propertySearchRepository.facets(key, facetPriceBands, facetMaxValues));
+        }
+        return propertySearchRepository.facets(filter, facetPriceBands, facetMaxValues);
+    }
+
     /**
      * Retrieves all offices with their contact details.
      *
@@ -60,4 +320,186 @@ public class ExportService {
         return exportRepository.getAllOffices();
     }
 
+    /**
+     * Streams all offices with their contact details, one office at a time.
+     *
+     * @param consumer Consumer that receives each office as soon as it's read
+     */
+    public void streamAllOffices(Consumer<OfficeDto> consumer) {
+        exportRepository.streamAllOffices(officesStreamFetchSize, consumer);
+    }
+
+    /**
+     * Writes the full property catalog as CSV, formatted by the database.
+     *
+     * @param out Stream the CSV is written to
+     */
+    public void exportCatalogCsv(OutputStream out) {
+        catalogExportRepository.copyCatalogCsv(out);
+    }
+
+    /**
+     * Finds the properties within a radius around a point, nearest first.
+     *
+     * @param latitude  Latitude of the center in degrees
+     * @param longitude Longitude of the center in degrees
+     * @param radiusKm  Radius in kilometers
+     * @param limit     Maximum number of properties to return
+     * @return Properties with their distance from the center
+     */
+    public List<PropertyLocationDto> findPropertiesNear(double latitude, double longitude, double radiusKm, int limit) {
+        return geoSearchRepository.findNear(latitude, longitude, radiusKm, limit);
+    }
+
+    /**
+     * Finds the properties within a bounding box.
+     *
+     * @param minLatitude  Southern edge in degrees
+     * @param minLongitude Western edge in degrees
+     * @param maxLatitude  Northern edge in degrees
+     * @param maxLongitude Eastern edge in degrees; less than {@code minLongitude} if the box crosses the antimeridian
+     * @param limit        Maximum number of properties to return
+     * @return Properties in the box
+     */
+    public List<PropertyLocationDto> findPropertiesWithin(double minLatitude, double minLongitude, double maxLatitude, double maxLongitude, int limit) {
+        if (minLatitude > maxLatitude) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "minLat must not be greater than maxLat");
+        }
+        return geoSearchRepository.findWithin(minLatitude, minLongitude, maxLatitude, maxLongitude, limit);
+    }
+
+    /**
+     * Aggregates the properties within a bounding box into clusters for a map at the given zoom level.
+     * <p>
+     * The grid follows the web map tiling: at zoom {@code z} a tile spans {@code 360 / 2^z} degrees of
+     * longitude and is split into {@code export.map.cells-per-tile} cells per edge. If the box is so large
+     * for its zoom level that it would produce more than {@code export.map.max-clusters} cells, the cells
+     * are doubled in size until it doesn't, so the response stays small whatever the client asks for.
+     *
+     * @param minLatitude  Southern edge in degrees
+     * @param minLongitude Western edge in degrees
+     * @param maxLatitude  Northern edge in degrees
+     * @param maxLongitude Eastern edge in degrees; less than {@code minLongitude} if the box crosses the antimeridian
+     * @param zoom         Map zoom level, 0 shows the whole world on one tile
+     * @return One cluster per non-empty grid cell
+     */
+    public List<PropertyClusterDto> clusterProperties(double minLatitude, double minLongitude, double maxLatitude, double maxLongitude, int zoom) {
+        if (minLatitude > maxLatitude) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "minLat must not be greater than maxLat");
+        }
+        double width = minLongitude <= maxLongitude ? maxLongitude - minLongitude : maxLongitude - minLongitude + 360;
+        double height = maxLatitude - minLatitude;
+
+        double cellDegrees = 360.0 / (1L << zoom) / mapCellsPerTile;
+        // A box that isn't aligned to the grid touches one more partial cell per axis
+        while ((Math.ceil(width / cellDegrees) + 1) * (Math.ceil(height / cellDegrees) + 1) > mapMaxClusters) {
+            cellDegrees *= 2;
+        }
+        return geoSearchRepository.cluster(minLatitude, minLongitude, maxLatitude, maxLongitude, cellDegrees);
+    }
+
+    /**
+     * Retrieves an office with all its brokers, including their degrees and contacts.
+     *
+     * @param officeId ID of the office to retrieve
+     * @return Office DTO with brokers, or null if not found
+     */
+    public OfficeWithBrokersDto getOfficeWithBrokers(UUID officeId) {
+        return exportRepository.getOfficeWithBrokers(officeId);
+    }
+
+    /**
+     * Streams offices with all their brokers, one statement per batch of offices.
+     *
+     * @param officeIds IDs of the offices to export, or null/empty for all offices
+     * @param consumer  Consumer that receives each office as soon as its batch is loaded
+     */
+    public void streamOfficesWithBrokers(List<UUID> officeIds, Consumer<OfficeWithBrokersDto> consumer) {
+        if (officeIds != null && !officeIds.isEmpty()) {
+            for (int from = 0; from < officeIds.size(); from += officesHierarchyBatchSize) {
+                List<UUID> batch = officeIds.subList(from, Math.min(from + officesHierarchyBatchSize, officeIds.size()));
+                exportRepository.getOfficesWithBrokers(batch).forEach(consumer);
+            }
+            return;
+        }
+
+        // Walk all offices in ID order, each batch continues after the last office of the previous one
+        UUID afterOfficeId = null;
+        List<OfficeWithBrokersDto> batch;
+        do {
+            batch = exportRepository.getOfficesWithBrokersAfter(afterOfficeId, officesHierarchyBatchSize);
+            batch.forEach(consumer);
+            if (!batch.isEmpty()) {
+                afterOfficeId = batch.get(batch.size() - 1).getId();
+            }
+        } while (batch.size() == officesHierarchyBatchSize);
+    }
+
+    /**
+     * Retrieves detailed information about a property as a JSON document rendered by the database.
+     *
+     * @param officeId   ID of the office that owns the property
+     * @param propertyId ID of the property to retrieve
+     * @param consumer   Receives the UTF-8 encoded JSON document with the same contract as {@link PropertyDto}; not called if not found
+     * @return true if the property was found
+     */
+    public boolean writePropertyByIdJson(UUID officeId, UUID propertyId, Consumer<InputStream> consumer) {
+        return jsonExportRepository.writePropertyByIdJson(officeId, propertyId, consumer);
+    }
+
+    /**
+     * Retrieves all offices with their contact details as a JSON array rendered by the database.
+     *
+     * @param consumer Receives the UTF-8 encoded JSON array with the same contract as a list of {@link OfficeDto}
+     */
+    public void writeAllOfficesJson(Consumer<InputStream> consumer) {
+        jsonExportRepository.writeAllOfficesJson(consumer);
+    }
+
+    private static String encodeCursor(UUID id, String city) {
+        String key = id + ":" + (city == null ? "" : city);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(key.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String encodeSearchCursor(PropertySearchSort sort, PropertySummaryDto last) {
+        String value = switch (sort) {
+            case PRICE_ASC, PRICE_DESC -> last.price().toString();
+            case CITY -> last.city() == null ? "" : last.city();
+            case NEWEST -> last.createdAt().toString();
+        };
+        String key = sort + ":" + last.propertyId() + ":" + value;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(key.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String[] decodeSearchCursor(String cursor, PropertySearchSort sort) {
+        try {
+            String[] key = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8).split(":", 3);
+            if (key.length != 3 || !key[0].equals(sort.name())) {
+                throw new IllegalArgumentException("Malformed cursor or cursor of another sort order");
+            }
+            UUID.fromString(key[1]);
+            if (sort == PropertySearchSort.NEWEST) {
+                OffsetDateTime.parse(key[2]);
+            } else if (sort != PropertySearchSort.CITY) {
+                Integer.parseInt(key[2]);
+            }
+            return key;
+        } catch (IllegalArgumentException | DateTimeParseException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid cursor: " + cursor, e);
+        }
+    }
+
+    private static String[] decodeCursor(String cursor) {
+        try {
+            String[] key = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8).split(":", 2);
+            if (key.length != 2) {
+                throw new IllegalArgumentException("Malformed cursor");
+            }
+            UUID.fromString(key[0]);
+            return key;
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid cursor: " + cursor, e);
+        }
+    }
+
 }
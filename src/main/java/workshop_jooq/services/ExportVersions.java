@@ -0,0 +1,72 @@
+package workshop_jooq.services;
+
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-memory data versions used as strong ETags by the export endpoints.
+ * <p>
+ * Every write done through the import API bumps a generation counter, so an ETag can be computed
+ * without touching the database. Property details depend on their office's generation; a broker write
+ * bumps the broker's office and the offices of all of its properties, since these may differ.
+ * The office list has its own generation. Writes whose office is unknown bump the global generation,
+ * which is part of every property version.
+ * <p>
+ * The versions start from a per-process epoch, so ETags issued before a restart are never reused.
+ * <p>
+ * The counters live in this process only. With several instances behind a load balancer, a write
+ * handled by one instance doesn't change the ETags of the others, which keep answering 304 for data
+ * that has changed. Such deployments have to route all requests to one instance or disable the
+ * conditional requests; the ETags are only correct for a single instance.
+ */
+@Component
+public class ExportVersions {
+    private final String epoch = Long.toString(System.currentTimeMillis(), Character.MAX_RADIX);
+    private final AtomicLong globalGeneration = new AtomicLong();
+    private final AtomicLong officesGeneration = new AtomicLong();
+    private final Map<UUID, AtomicLong> officeGenerations = new ConcurrentHashMap<>();
+
+    /**
+     * Returns the current version of the data exported for properties of an office.
+     *
+     * @param officeId ID of the office
+     * @return Opaque version string
+     */
+    public String propertyVersion(UUID officeId) {
+        AtomicLong officeGeneration = officeGenerations.get(officeId);
+        return epoch + "-" + globalGeneration.get() + "-" + (officeGeneration == null ? 0 : officeGeneration.get());
+    }
+
+    /**
+     * Returns the current version of the office list.
+     *
+     * @return Opaque version string
+     */
+    public String officesVersion() {
+        return epoch + "-" + officesGeneration.get();
+    }
+
+    /**
+     * Marks the data of an office's properties as changed.
+     *
+     * @param officeId ID of the office, or null if it's unknown
+     */
+    public void officeDataChanged(UUID officeId) {
+        if (officeId == null) {
+            globalGeneration.incrementAndGet();
+            return;
+        }
+        officeGenerations.computeIfAbsent(officeId, id -> new AtomicLong()).incrementAndGet();
+    }
+
+    /**
+     * Marks the office list as changed.
+     */
+    public void officesChanged() {
+        officesGeneration.incrementAndGet();
+    }
+}
@@ -1,11 +1,38 @@
 package workshop_jooq.services;
 
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Service;
+import org.springframework.web.server.ResponseStatusException;
+import workshop_jooq.dtos.BrokerBulkDeleteResultDto;
 import workshop_jooq.dtos.BrokerDto;
+import workshop_jooq.dtos.BrokerPurgeStatusDto;
+import workshop_jooq.dtos.BulkImportResultDto;
+import workshop_jooq.dtos.BulkLoadResultDto;
+import workshop_jooq.dtos.ChunkResultDto;
+import workshop_jooq.enam.BulkLoadTable;
+import workshop_jooq.repositories.BulkLoadRepository;
 import workshop_jooq.repositories.ImportRepository;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
 
 /**
  * Service for importing data into the application.
@@ -21,36 +48,359 @@ import java.util.UUID;
  */
 @Service
 @RequiredArgsConstructor
+@Slf4j
 public class ImportService {
     private final ImportRepository importRepositoryl;
+    private final BulkLoadRepository bulkLoadRepository;
+    private final BrokerGroupCommitter brokerGroupCommitter;
+    private final BrokerPurgeJob brokerPurgeJob;
+    private final PropertyDetailCache propertyDetailCache;
+    private final ExportVersions exportVersions;
+    private final ObjectMapper objectMapper;
+
+    /**
+     * Broker fields a merge patch may contain.
+     */
+    private static final Set<String> PATCHABLE_FIELDS = Set.of(
+            BrokerDto.Fields.firstName, BrokerDto.Fields.lastName, BrokerDto.Fields.isPaidUser,
+            BrokerDto.Fields.externalId, BrokerDto.Fields.degreeBefore, BrokerDto.Fields.emails,
+            BrokerDto.Fields.phoneNumbers);
+
+    /**
+     * Number of brokers written per transaction by the bulk import.
+     */
+    @Value("${import.brokers.chunk-size:500}")
+    private int brokersChunkSize;
+
+    /**
+     * Whether single broker creates and updates are committed in groups, see {@link BrokerGroupCommitter}.
+     */
+    @Value("${import.brokers.group-commit.enabled:false}")
+    private boolean groupCommit;
+
+    /**
+     * Whether deleted brokers are only hidden and purged later by the {@link BrokerPurgeJob}.
+     */
+    @Value("${import.brokers.soft-delete:true}")
+    private boolean softDelete;
 
     /**
      * Creates a new broker with all associated data.
+     * <p>
+     * A broker whose external ID belongs to a soft-deleted broker can only be created once that broker
+     * is purged; until then, the request fails with 409 and can be retried.
      *
      * @param brokerDto DTO containing the broker information to create
      * @return The created broker DTO with assigned ID
      */
     public BrokerDto createBroker(BrokerDto brokerDto) {
-        return importRepositoryl.createBroker(brokerDto);
+        BrokerDto created;
+        try {
+            created = groupCommit
+                    ? brokerGroupCommitter.createBroker(brokerDto)
+                    : importRepositoryl.createBroker(brokerDto);
+        } catch (DuplicateKeyException e) {
+            throw new ResponseStatusException(HttpStatus.CONFLICT,
+                    e.getMostSpecificCause().getMessage() + "; the purge progress is reported by GET /api/v1/import/brokers/purge", e);
+        }
+        brokerChanged(created.getId(), created.getOfficeId());
+        return created;
     }
 
     /**
      * Updates an existing broker with all associated data.
+     * <p>
+     * If the DTO carries a version, the update only succeeds if the broker still has that version;
+     * otherwise it fails with 412, without waiting for concurrent writers of the same broker.
      *
-     * @param brokerDto DTO containing the updated broker information
-     * @return The updated broker DTO
+     * @param brokerDto DTO containing the updated broker information, optionally with the expected version
+     * @return The updated broker DTO with its new version
      */
     public BrokerDto updateBroker(BrokerDto brokerDto) {
-        return importRepositoryl.updateBroker(brokerDto);
+        BrokerDto updated;
+        try {
+            updated = groupCommit
+                    ? brokerGroupCommitter.updateBroker(brokerDto)
+                    : importRepositoryl.updateBroker(brokerDto);
+        } catch (OptimisticLockingFailureException e) {
+            throw new ResponseStatusException(HttpStatus.PRECONDITION_FAILED, e.getMessage(), e);
+        }
+        brokerChanged(updated.getId(), updated.getOfficeId());
+        return updated;
+    }
+
+    /**
+     * Applies a JSON Merge Patch (RFC 7396) to a broker.
+     * <p>
+     * Fields missing from the patch are left alone; {@code null} clears a field or empties a collection,
+     * and an array replaces the whole collection. {@code firstName} and {@code lastName} can't be cleared.
+     * Patches bypass group commit, since they are never created in bulk. The expected version
+     * works as for {@link #updateBroker(BrokerDto)}.
+     *
+     * @param brokerId        ID of the broker to patch
+     * @param expectedVersion Version the broker must have, or null to patch any version
+     * @param patch           JSON object with the fields to change
+     * @return The broker after the patch, with its new version
+     * @throws ResponseStatusException with HTTP 409 if the patched external ID belongs to another broker
+     */
+    public BrokerDto patchBroker(UUID brokerId, Long expectedVersion, JsonNode patch) {
+        if (!patch.isObject()) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "A merge patch must be a JSON object");
+        }
+        Set<String> fields = new LinkedHashSet<>();
+        patch.fieldNames().forEachRemaining(fields::add);
+        for (String field : fields) {
+            if (!PATCHABLE_FIELDS.contains(field)) {
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Unknown or read-only broker field: " + field);
+            }
+        }
+        for (String field : List.of(BrokerDto.Fields.firstName, BrokerDto.Fields.lastName)) {
+            if (patch.has(field) && patch.get(field).isNull()) {
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Broker field can't be removed: " + field);
+            }
+        }
+
+        BrokerDto values;
+        try {
+            values = objectMapper.treeToValue(patch, BrokerDto.class);
+        } catch (JsonProcessingException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Malformed broker patch: " + e.getOriginalMessage(), e);
+        }
+        values.setId(brokerId);
+        values.setVersion(expectedVersion);
+        try {
+            return brokerChanged(importRepositoryl.patchBroker(values, fields));
+        } catch (OptimisticLockingFailureException e) {
+            throw new ResponseStatusException(HttpStatus.PRECONDITION_FAILED, e.getMessage(), e);
+        } catch (DuplicateKeyException e) {
+            // A deleted broker keeps its external ID until it's purged, so it can be the other owner as well
+            throw new ResponseStatusException(HttpStatus.CONFLICT,
+                    "External ID " + values.getExternalId() + " already belongs to another broker", e);
+        }
+    }
+
+    /**
+     * Creates a new broker without waiting for the write.
+     *
+     * @param brokerDto DTO containing the broker information to create
+     * @return Future completed with the created broker once it's committed
+     */
+    public CompletableFuture<BrokerDto> createBrokerAsync(BrokerDto brokerDto) {
+        CompletableFuture<BrokerDto> write = groupCommit
+                ? brokerGroupCommitter.submitCreate(brokerDto)
+                : completed(() -> importRepositoryl.createBroker(brokerDto));
+        return write.thenApply(this::brokerChanged);
+    }
+
+    /**
+     * Updates an existing broker without waiting for the write.
+     *
+     * @param brokerDto DTO containing the updated broker information
+     * @return Future completed with the updated broker once it's committed
+     */
+    public CompletableFuture<BrokerDto> updateBrokerAsync(BrokerDto brokerDto) {
+        CompletableFuture<BrokerDto> write = groupCommit
+                ? brokerGroupCommitter.submitUpdate(brokerDto)
+                : completed(() -> importRepositoryl.updateBroker(brokerDto));
+        return write.thenApply(this::brokerChanged);
     }
 
     /**
      * Deletes a broker and all associated data.
+     * <p>
+     * With soft delete enabled, the broker disappears from all exports right away, while its
+     * dependents are removed in the background in small chunks.
      *
      * @param brokerId ID of the broker to delete
      */
     public void deleteBroker(UUID brokerId) {
-        importRepositoryl.deleteBroker(brokerId);
+        if (softDelete) {
+            UUID officeId = importRepositoryl.softDeleteBroker(brokerId);
+            brokerPurgeJob.wakeUp();
+            brokerChanged(brokerId, officeId);
+        } else {
+            // The delete detaches the broker's properties, so their offices have to be looked up before
+            List<UUID> propertyOfficeIds = importRepositoryl.findPropertyOfficeIds(List.of(brokerId));
+            UUID officeId = importRepositoryl.deleteBroker(brokerId);
+            propertyDetailCache.invalidateBroker(brokerId);
+            exportVersions.officeDataChanged(officeId);
+            propertyOfficeIds.forEach(exportVersions::officeDataChanged);
+        }
+    }
+
+    /**
+     * Deletes many brokers and all associated data in one transaction.
+     * <p>
+     * Unlike {@link #deleteBroker(UUID)}, the brokers are always removed right away, with one set-based
+     * statement per table instead of one cascade per broker.
+     *
+     * @param brokerIds IDs of the brokers to delete
+     * @return Deleted brokers and the affected rows per table
+     */
+    public BrokerBulkDeleteResultDto deleteBrokers(List<UUID> brokerIds) {
+        if (brokerIds.isEmpty()) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "No broker IDs given");
+        }
+        return brokersDeleted(importRepositoryl.deleteBrokers(brokerIds));
+    }
+
+    /**
+     * Deletes all brokers of an office and their associated data in one transaction, e.g. to offboard it.
+     *
+     * @param officeId ID of the office whose brokers are deleted
+     * @return Deleted brokers and the affected rows per table
+     */
+    public BrokerBulkDeleteResultDto deleteOfficeBrokers(UUID officeId) {
+        return brokersDeleted(importRepositoryl.deleteOfficeBrokers(officeId));
+    }
+
+    /**
+     * Returns the progress of the background purge of soft-deleted brokers.
+     *
+     * @return Status of the purge job
+     */
+    public BrokerPurgeStatusDto getPurgeStatus() {
+        return brokerPurgeJob.status();
+    }
+
+    /**
+     * Creates brokers from a JSON array, reading the payload incrementally.
+     * <p>
+     * The array is parsed element by element with Jackson's streaming {@link JsonParser}, so only one chunk
+     * of brokers is held in memory at a time. Every chunk is written in its own transaction; a failed chunk
+     * is rolled back and reported, and the import continues with the next one.
+     * <p>
+     * Brokers whose external ID is already known update the existing broker, so a retried import
+     * doesn't create duplicates; every stored broker is propagated to the cache and the ETags.
+     *
+     * @param payload Request body containing a JSON array of brokers
+     * @return Totals and per-chunk results
+     * @throws IOException if the payload can't be read from the request
+     */
+    public BulkImportResultDto createBrokers(InputStream payload) throws IOException {
+        BulkImportResultDto result = new BulkImportResultDto();
+        List<BrokerDto> chunk = new ArrayList<>(brokersChunkSize);
+
+        try (JsonParser parser = objectMapper.getFactory().createParser(payload)) {
+            if (parser.nextToken() != JsonToken.START_ARRAY) {
+                result.setError("Expected a JSON array of brokers");
+                return result;
+            }
+            while (parser.nextToken() == JsonToken.START_OBJECT) {
+                chunk.add(objectMapper.readValue(parser, BrokerDto.class));
+                if (chunk.size() == brokersChunkSize) {
+                    writeChunk(chunk, result);
+                    chunk = new ArrayList<>(brokersChunkSize);
+                }
+            }
+            if (parser.currentToken() != JsonToken.END_ARRAY) {
+                result.setError("Unexpected token " + parser.currentToken() + " in the broker array");
+            }
+        } catch (JsonProcessingException e) {
+            // Everything before the malformed element is still imported, the rest is skipped
+            result.setError("Malformed broker payload: " + e.getOriginalMessage());
+        }
+
+        writeChunk(chunk, result);
+        return result;
+    }
+
+    /**
+     * Loads a CSV feed into one of the bulk-loadable tables with {@code COPY}.
+     * <p>
+     * The feed is loaded in a single transaction, so it's either merged completely or not at all.
+     * A feed can touch any office or property, so the whole property cache is dropped and all ETags change.
+     *
+     * @param tableName Name of the table to load, e.g. {@code office}
+     * @param csv       CSV feed with a header line
+     * @return Number of staged and merged rows
+     * @throws IOException if the feed can't be read from the request
+     */
+    public BulkLoadResultDto bulkLoad(String tableName, InputStream csv) throws IOException {
+        BulkLoadResultDto result;
+        try {
+            result = bulkLoadRepository.load(BulkLoadTable.fromTableName(tableName), csv);
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage(), e);
+        } catch (DataAccessException e) {
+            // Constraint violations of the merge, e.g. a property referencing an address that isn't loaded yet
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMostSpecificCause().getMessage(), e);
+        } catch (org.jooq.exception.DataAccessException e) {
+            // COPY runs outside jOOQ's statement execution, so its errors aren't translated by Spring
+            Throwable cause = e.getCause() != null ? e.getCause() : e;
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, cause.getMessage(), e);
+        }
+
+        propertyDetailCache.invalidateAll();
+        exportVersions.officeDataChanged(null);
+        exportVersions.officesChanged();
+        return result;
+    }
+
+    /**
+     * Writes one chunk in its own transaction and records its outcome.
+     */
+    private void writeChunk(List<BrokerDto> chunk, BulkImportResultDto result) {
+        if (chunk.isEmpty()) {
+            return;
+        }
+        int index = result.getChunks().size();
+        try {
+            brokersChanged(importRepositoryl.createBrokers(chunk));
+            result.setSucceeded(result.getSucceeded() + chunk.size());
+            result.getChunks().add(new ChunkResultDto(index, chunk.size(), 0, null));
+        } catch (DataAccessException e) {
+            log.warn("Bulk import chunk {} of {} brokers failed", index, chunk.size(), e);
+            result.setFailed(result.getFailed() + chunk.size());
+            result.getChunks().add(new ChunkResultDto(index, 0, chunk.size(), e.getMostSpecificCause().getMessage()));
+        }
+    }
+
+    /**
+     * Propagates a committed broker write to the export side.
+     * <p>
+     * The repository transaction is committed at this point, so reloads will see the new data.
+     * Property details embed their broker, so they are evicted from the cache and their ETags change:
+     * the ETags of the broker's office and of every office its properties belong to, which may differ.
+     */
+    private void brokerChanged(UUID brokerId, UUID officeId) {
+        propertyDetailCache.invalidateBroker(brokerId);
+        exportVersions.officeDataChanged(officeId);
+        importRepositoryl.findPropertyOfficeIds(List.of(brokerId)).forEach(exportVersions::officeDataChanged);
+    }
+
+    private BrokerDto brokerChanged(BrokerDto broker) {
+        brokerChanged(broker.getId(), broker.getOfficeId());
+        return broker;
+    }
+
+    /**
+     * Same as {@link #brokerChanged(UUID, UUID)} for many brokers, with a single lookup of their property offices.
+     */
+    private void brokersChanged(List<BrokerDto> brokers) {
+        for (BrokerDto broker : brokers) {
+            propertyDetailCache.invalidateBroker(broker.getId());
+            exportVersions.officeDataChanged(broker.getOfficeId());
+        }
+        importRepositoryl.findPropertyOfficeIds(brokers.stream().map(BrokerDto::getId).distinct().toList())
+                .forEach(exportVersions::officeDataChanged);
+    }
+
+    private BrokerBulkDeleteResultDto brokersDeleted(BrokerBulkDeleteResultDto result) {
+        result.brokerIds().forEach(propertyDetailCache::invalidateBroker);
+        result.officeIds().forEach(exportVersions::officeDataChanged);
+        return result;
+    }
+
+    /**
+     * Runs a write right away and wraps its outcome in a completed future.
+     */
+    private static CompletableFuture<BrokerDto> completed(Supplier<BrokerDto> write) {
+        try {
+            return CompletableFuture.completedFuture(write.get());
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
     }
 
 }
@@ -0,0 +1,189 @@
+package workshop_jooq.services;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import workshop_jooq.dtos.CacheStatsDto;
+import workshop_jooq.dtos.PropertyDto;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * In-process read-through cache for property details.
+ * <p>
+ * Entries are keyed by (officeId, propertyId) and bounded both by size and by time to live.
+ * Eviction is done by Caffeine's W-TinyLFU policy, which keeps frequently read properties
+ * even when a burst of one-off reads passes through the cache.
+ * <p>
+ * A property detail embeds its broker, so the cache also keeps a reverse index from broker ID to the
+ * cached keys. Broker writes use it to invalidate exactly the properties that embed that broker.
+ * Missing properties are not cached.
+ * <p>
+ * A load may have read the database before a write that is invalidated while the load is still running.
+ * Every invalidation therefore advances a generation counter, and a load that sees the counter change
+ * while it ran drops its own entry again; the caller still gets the loaded value.
+ */
+@Component
+@Slf4j
+public class PropertyDetailCache {
+
+    private record Key(UUID officeId, UUID propertyId) {
+    }
+
+    private final Cache<Key, PropertyDto> cache;
+    private final Map<UUID, Set<Key>> keysByBroker = new ConcurrentHashMap<>();
+    private final AtomicLong generation = new AtomicLong();
+
+    public PropertyDetailCache(
+            @Value("${export.property.cache.maximum-size:10000}") long maximumSize,
+            @Value("${export.property.cache.time-to-live:10m}") Duration timeToLive
+    ) {
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(timeToLive)
+                .recordStats()
+                // Runs atomically with size and expiry evictions, so the reverse index never outlives an entry
+                .evictionListener((Key key, PropertyDto property, RemovalCause cause) -> unindex(key, property))
+                .build();
+    }
+
+    /**
+     * Returns the cached property, loading and caching it on a miss.
+     *
+     * @param officeId   ID of the office that owns the property
+     * @param propertyId ID of the property
+     * @param loader     Loads the property from the database, may return null
+     * @return The property DTO, or null if the loader didn't find it
+     */
+    public PropertyDto get(UUID officeId, UUID propertyId, Supplier<PropertyDto> loader) {
+        Key key = new Key(officeId, propertyId);
+        // Only set if this call ran the loader, not if it got a cached or concurrently loaded value
+        long[] loadedAt = {-1};
+        PropertyDto property = cache.get(key, missing -> {
+            loadedAt[0] = generation.get();
+            return index(missing, loader.get());
+        });
+        if (loadedAt[0] >= 0 && property != null) {
+            dropIfInvalidated(loadedAt[0], Map.of(key, property));
+        }
+        return property;
+    }
+
+    /**
+     * Returns the cached properties, loading all misses with a single call to the loader.
+     *
+     * @param officeId    ID of the office that owns the properties
+     * @param propertyIds IDs of the properties
+     * @param loader      Loads the missing properties by ID; the returned DTOs must have their IDs set
+     * @return Map of property ID to property DTO; IDs the loader didn't find are omitted
+     */
+    public Map<UUID, PropertyDto> getAll(UUID officeId, Collection<UUID> propertyIds, Function<Set<UUID>, List<PropertyDto>> loader) {
+        List<Key> keys = propertyIds.stream().map(propertyId -> new Key(officeId, propertyId)).toList();
+
+        long[] loadedAt = {-1};
+        Map<Key, PropertyDto> loaded = new LinkedHashMap<>();
+        Map<Key, PropertyDto> cached = cache.getAll(keys, missing -> {
+            loadedAt[0] = generation.get();
+            Set<UUID> missingIds = new HashSet<>();
+            missing.forEach(key -> missingIds.add(key.propertyId()));
+
+            for (PropertyDto property : loader.apply(missingIds)) {
+                Key key = new Key(officeId, property.getId());
+                loaded.put(key, index(key, property));
+            }
+            return loaded;
+        });
+        if (loadedAt[0] >= 0) {
+            dropIfInvalidated(loadedAt[0], loaded);
+        }
+
+        Map<UUID, PropertyDto> properties = new LinkedHashMap<>();
+        cached.forEach((key, property) -> properties.put(key.propertyId(), property));
+        return properties;
+    }
+
+    /**
+     * Invalidates every cached property that embeds the given broker.
+     *
+     * @param brokerId ID of the broker that was written
+     */
+    public void invalidateBroker(UUID brokerId) {
+        // Advanced first: a load still running can't be in the index yet, so it has to notice on its own
+        generation.incrementAndGet();
+        Set<Key> keys = keysByBroker.remove(brokerId);
+        if (keys != null) {
+            cache.invalidateAll(keys);
+            log.debug("Invalidated {} cached properties of broker {}", keys.size(), brokerId);
+        }
+    }
+
+    /**
+     * Invalidates all cached properties, for writes that can't be traced to single brokers.
+     */
+    public void invalidateAll() {
+        generation.incrementAndGet();
+        cache.invalidateAll();
+        keysByBroker.clear();
+    }
+
+    /**
+     * Returns the cache counters.
+     *
+     * @return Hit, miss and eviction counts since start and the current size
+     */
+    public CacheStatsDto stats() {
+        CacheStats stats = cache.stats();
+        return new CacheStatsDto(stats.hitCount(), stats.missCount(), stats.evictionCount(), stats.hitRate(), cache.estimatedSize());
+    }
+
+    /**
+     * Removes freshly loaded entries again if an invalidation happened since the load started,
+     * because the load may have read the data from before the invalidated write.
+     * <p>
+     * The entries are already cached and indexed at this point, so an invalidation that happens
+     * after this check finds them in the index and removes them itself.
+     */
+    private void dropIfInvalidated(long loadedAt, Map<Key, PropertyDto> loaded) {
+        if (generation.get() == loadedAt) {
+            return;
+        }
+        loaded.forEach((key, property) -> {
+            // Only removes the loaded value, not one that a later load has put in the meantime
+            if (cache.asMap().remove(key, property)) {
+                unindex(key, property);
+            }
+        });
+        log.debug("Dropped {} loaded properties, they were invalidated while loading", loaded.size());
+    }
+
+    private PropertyDto index(Key key, PropertyDto property) {
+        if (property != null && property.getBrokerId() != null) {
+            keysByBroker.computeIfAbsent(property.getBrokerId(), brokerId -> ConcurrentHashMap.newKeySet()).add(key);
+        }
+        return property;
+    }
+
+    private void unindex(Key key, PropertyDto property) {
+        if (property != null && property.getBrokerId() != null) {
+            keysByBroker.computeIfPresent(property.getBrokerId(), (brokerId, keys) -> {
+                keys.remove(key);
+                return keys.isEmpty() ? null : keys;
+            });
+        }
+    }
+}
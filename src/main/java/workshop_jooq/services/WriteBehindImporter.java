@@ -0,0 +1,292 @@
+package workshop_jooq.services;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.web.server.ResponseStatusException;
+import workshop_jooq.dtos.BrokerDto;
+import workshop_jooq.dtos.ImportOperationDto;
+import workshop_jooq.enam.ImportOperationStatus;
+import workshop_jooq.enam.ImportOperationType;
+
+import java.time.Duration;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Asynchronous write-behind mode for broker writes.
+ * <p>
+ * Writes are accepted into a bounded in-memory queue and answered with an operation ID right away,
+ * so HTTP latency doesn't depend on database write latency. A single writer thread drains the queue
+ * in batches; creates and updates of a batch are handed to the {@link BrokerGroupCommitter} together,
+ * so they share transactions. Operations are applied in the order they were accepted: the group committer
+ * keeps the submission order within a group, only combining consecutive creates, and deletes wait for
+ * everything submitted before them.
+ * <p>
+ * When the queue is full, new writes are rejected instead of piling up, and the caller is expected
+ * to retry later. Outcomes are kept for a limited time and can be polled by operation ID; the number of
+ * kept outcomes is bounded as well, so sustained load can't fill the heap with statuses nobody polls.
+ * Queued writes are lost if the process dies, so this mode trades durability for throughput.
+ * <p>
+ * Synchronous bulk deletes bypass the queue, so they call {@link #awaitAccepted()} first: otherwise a write
+ * accepted before the delete could be applied after it, against a broker that no longer exists.
+ */
+@Service
+@Slf4j
+public class WriteBehindImporter {
+    private final ImportService importService;
+    private final BlockingQueue<QueuedOperation> queue;
+    private final Cache<UUID, ImportOperationDto> operations;
+
+    /**
+     * Maximum number of queued operations drained by the writer at once.
+     */
+    @Value("${import.async.batch-size:100}")
+    private int batchSize;
+
+    /**
+     * How long a client should wait before retrying a rejected write.
+     */
+    @Value("${import.async.retry-after:1s}")
+    private Duration retryAfter;
+
+    /**
+     * How long a synchronous caller waits for the writes accepted before it.
+     */
+    @Value("${import.async.await-timeout:30s}")
+    private Duration awaitTimeout;
+
+    /**
+     * A queued write, or a barrier that is completed once all operations queued before it are done.
+     */
+    private record QueuedOperation(ImportOperationDto operation, BrokerDto broker, CompletableFuture<Void> barrier) {
+    }
+
+    private Thread writer;
+
+    public WriteBehindImporter(
+            ImportService importService,
+            @Value("${import.async.queue-capacity:10000}") int queueCapacity,
+            @Value("${import.async.status-time-to-live:1h}") Duration statusTimeToLive,
+            @Value("${import.async.status-maximum-size:100000}") long statusMaximumSize
+    ) {
+        this.importService = importService;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.operations = Caffeine.newBuilder()
+                .expireAfterWrite(statusTimeToLive)
+                .maximumSize(statusMaximumSize)
+                .build();
+    }
+
+    @PostConstruct
+    void start() {
+        writer = new Thread(this::run, "broker-write-behind");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    @PreDestroy
+    void stop() throws InterruptedException {
+        writer.interrupt();
+        writer.join(TimeUnit.SECONDS.toMillis(10));
+    }
+
+    /**
+     * Queues a broker create.
+     *
+     * @param brokerDto DTO containing the broker information to create
+     * @return The accepted operation, or empty if the queue is full
+     */
+    public Optional<ImportOperationDto> createBroker(BrokerDto brokerDto) {
+        return accept(ImportOperationType.CREATE, null, brokerDto);
+    }
+
+    /**
+     * Queues a broker update.
+     *
+     * @param brokerDto DTO containing the updated broker information, with its ID set
+     * @return The accepted operation, or empty if the queue is full
+     */
+    public Optional<ImportOperationDto> updateBroker(BrokerDto brokerDto) {
+        return accept(ImportOperationType.UPDATE, brokerDto.getId(), brokerDto);
+    }
+
+    /**
+     * Queues a broker delete.
+     *
+     * @param brokerId ID of the broker to delete
+     * @return The accepted operation, or empty if the queue is full
+     */
+    public Optional<ImportOperationDto> deleteBroker(UUID brokerId) {
+        return accept(ImportOperationType.DELETE, brokerId, null);
+    }
+
+    /**
+     * Waits until all operations accepted so far are applied.
+     * <p>
+     * A barrier is queued behind them, so operations accepted later don't prolong the wait.
+     *
+     * @throws ResponseStatusException with HTTP 503 if the barrier can't be queued or the writes
+     *                                 aren't applied within {@code import.async.await-timeout}
+     */
+    public void awaitAccepted() {
+        CompletableFuture<Void> barrier = new CompletableFuture<>();
+        try {
+            if (!queue.offer(new QueuedOperation(null, null, barrier), awaitTimeout.toMillis(), TimeUnit.MILLISECONDS)) {
+                throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Asynchronous broker writes are backed up, retry later");
+            }
+            barrier.get(awaitTimeout.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Interrupted while waiting for asynchronous broker writes");
+        } catch (TimeoutException e) {
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Asynchronous broker writes are backed up, retry later");
+        } catch (ExecutionException e) {
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, e.getCause().getMessage());
+        }
+    }
+
+    /**
+     * Returns the current state of an operation.
+     *
+     * @param operationId ID returned when the operation was accepted
+     * @return The operation, or empty if it's unknown or its outcome has expired
+     */
+    public Optional<ImportOperationDto> getOperation(UUID operationId) {
+        return Optional.ofNullable(operations.getIfPresent(operationId));
+    }
+
+    /**
+     * Returns the delay a client should wait after a write was rejected because the queue was full.
+     *
+     * @return Delay in whole seconds, at least one
+     */
+    public long getRetryAfterSeconds() {
+        return Math.max(1, retryAfter.toSeconds());
+    }
+
+    private Optional<ImportOperationDto> accept(ImportOperationType type, UUID brokerId, BrokerDto brokerDto) {
+        ImportOperationDto operation = new ImportOperationDto();
+        operation.setId(UUID.randomUUID());
+        operation.setType(type);
+        operation.setStatus(ImportOperationStatus.QUEUED);
+        operation.setBrokerId(brokerId);
+        operation.setAcceptedAt(OffsetDateTime.now());
+
+        // Registered before queueing, so the writer can never complete an operation that isn't visible yet
+        operations.put(operation.getId(), operation);
+        if (!queue.offer(new QueuedOperation(operation, brokerDto, null))) {
+            operations.invalidate(operation.getId());
+            return Optional.empty();
+        }
+        return Optional.of(operation);
+    }
+
+    private void run() {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                List<QueuedOperation> batch = new ArrayList<>(batchSize);
+                batch.add(queue.take());
+                queue.drainTo(batch, batchSize - 1);
+                write(batch);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        List<QueuedOperation> remaining = new ArrayList<>();
+        queue.drainTo(remaining);
+        if (!remaining.isEmpty()) {
+            log.warn("Shutting down with {} queued broker writes, they are not applied", remaining.size());
+            IllegalStateException shuttingDown = new IllegalStateException("Application is shutting down");
+            for (QueuedOperation queued : remaining) {
+                if (queued.barrier() != null) {
+                    queued.barrier().completeExceptionally(shuttingDown);
+                } else {
+                    complete(queued.operation(), queued.operation().getBrokerId(), shuttingDown);
+                }
+            }
+        }
+    }
+
+    /**
+     * Applies a batch in order.
+     * <p>
+     * Creates and updates are submitted without waiting, so the group committer can combine them;
+     * it commits them in the order they were submitted, which is the order of the batch.
+     * Deletes aren't group committed; before a delete, all writes submitted so far are awaited,
+     * so that e.g. an update followed by a delete of the same broker keeps its order. Barriers are
+     * completed the same way, once everything before them is done.
+     */
+    private void write(List<QueuedOperation> batch) {
+        List<CompletableFuture<BrokerDto>> inFlight = new ArrayList<>();
+        for (QueuedOperation queued : batch) {
+            if (queued.barrier() != null) {
+                awaitAll(inFlight);
+                queued.barrier().complete(null);
+                continue;
+            }
+            ImportOperationDto operation = queued.operation();
+            switch (operation.getType()) {
+                case CREATE -> inFlight.add(track(operation, importService.createBrokerAsync(queued.broker())));
+                case UPDATE -> inFlight.add(track(operation, importService.updateBrokerAsync(queued.broker())));
+                case DELETE -> {
+                    awaitAll(inFlight);
+                    try {
+                        importService.deleteBroker(operation.getBrokerId());
+                        complete(operation, operation.getBrokerId(), null);
+                    } catch (RuntimeException e) {
+                        complete(operation, operation.getBrokerId(), e);
+                    }
+                }
+            }
+        }
+        awaitAll(inFlight);
+    }
+
+    private CompletableFuture<BrokerDto> track(ImportOperationDto operation, CompletableFuture<BrokerDto> write) {
+        return write.whenComplete((broker, error) -> complete(operation, broker != null ? broker.getId() : operation.getBrokerId(), error));
+    }
+
+    private static void awaitAll(List<CompletableFuture<BrokerDto>> inFlight) {
+        // Failures are recorded per operation by track(), so they're ignored here
+        CompletableFuture.allOf(inFlight.toArray(CompletableFuture[]::new)).exceptionally(error -> null).join();
+        inFlight.clear();
+    }
+
+    /**
+     * Publishes the outcome as a new DTO, so readers never see a half-updated operation.
+     */
+    private void complete(ImportOperationDto operation, UUID brokerId, Throwable error) {
+        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+
+        ImportOperationDto completed = new ImportOperationDto();
+        completed.setId(operation.getId());
+        completed.setType(operation.getType());
+        completed.setStatus(cause == null ? ImportOperationStatus.SUCCEEDED : ImportOperationStatus.FAILED);
+        completed.setBrokerId(brokerId);
+        completed.setError(cause == null ? null : cause.getMessage());
+        completed.setAcceptedAt(operation.getAcceptedAt());
+        completed.setCompletedAt(OffsetDateTime.now());
+        operations.put(completed.getId(), completed);
+
+        if (cause != null) {
+            log.debug("Asynchronous {} of broker {} failed", operation.getType(), brokerId, cause);
+        }
+    }
+}
@@ -42,12 +42,15 @@ CREATE TABLE office
 
 CREATE TABLE broker
 (
-    id         UUID PRIMARY KEY         DEFAULT gen_random_uuid(),
-    first_name VARCHAR(50) NOT NULL,
-    last_name  VARCHAR(50) NOT NULL,
-    office_id  UUID REFERENCES office (id) ON DELETE CASCADE,
-    is_mls     BOOLEAN                  DEFAULT FALSE,
-    created_at TIMESTAMP WITH TIME ZONE DEFAULT NOW()
+    id          UUID PRIMARY KEY         DEFAULT gen_random_uuid(),
+    first_name  VARCHAR(50) NOT NULL,
+    last_name   VARCHAR(50) NOT NULL,
+    office_id   UUID REFERENCES office (id) ON DELETE CASCADE,
+    is_mls      BOOLEAN                  DEFAULT FALSE,
+    external_id VARCHAR(100) UNIQUE, -- ID of the broker in the upstream CRM, makes imports idempotent
+    deleted_at  TIMESTAMP WITH TIME ZONE, -- set by a soft delete; the broker is hidden and purged in the background
+    version     BIGINT NOT NULL          DEFAULT 0, -- incremented by every update, for optimistic concurrency control
+    created_at  TIMESTAMP WITH TIME ZONE DEFAULT NOW()
 );
 
 CREATE TABLE broker_degree
@@ -106,6 +109,7 @@ CREATE TABLE image
 );
 
 CREATE INDEX idx_broker_office_id ON broker (office_id);
+CREATE INDEX idx_broker_deleted_at ON broker (deleted_at) WHERE deleted_at IS NOT NULL;
 CREATE INDEX idx_property_broker_id ON property (broker_id);
 CREATE INDEX idx_property_office_id ON property (office_id);
 CREATE INDEX idx_property_address_id ON property (address_id);
@@ -114,4 +118,15 @@ CREATE INDEX idx_email_office_id ON email (office_id);
 CREATE INDEX idx_phone_broker_id ON phone_number (broker_id);
 CREATE INDEX idx_phone_office_id ON phone_number (office_id);
 CREATE INDEX idx_property_image_property_id ON image (property_id);
-CREATE INDEX idx_address_gis_id ON address (gis_id);
\ No newline at end of file
+CREATE INDEX idx_address_gis_id ON address (gis_id);
+-- Bounding-box searches: a range on latitude, longitude checked inside the index
+CREATE INDEX idx_gis_latitude_longitude ON gis (latitude, longitude);
+
+-- Property search: composite indexes for the filters and the keyset sort orders
+-- Price filters and sorting only consider public prices, hence the partial indexes
+CREATE INDEX idx_property_public_price ON property (price, id) WHERE is_public_price;
+CREATE INDEX idx_property_office_public_price ON property (office_id, price, id) WHERE is_public_price;
+CREATE INDEX idx_property_created_at ON property (created_at DESC, id DESC);
+CREATE INDEX idx_property_office_created_at ON property (office_id, created_at DESC, id DESC);
+CREATE INDEX idx_address_city ON address (city);
+CREATE INDEX idx_address_country_city ON address (country, city);
\ No newline at end of file
@@ -0,0 +1,32 @@
+package workshop_jooq;
+
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.utility.MountableFile;
+
+/**
+ * Base class for tests that run against a real PostgreSQL.
+ * <p>
+ * One container is started per test run and shared by all test classes, so the Spring contexts
+ * can be cached as well. It's initialized with the same scripts as a local database:
+ * {@code init.sql} for the schema and {@code data.sql} for the sample data.
+ * Running the tests requires Docker.
+ */
+public abstract class PostgresTestBase {
+    protected static final PostgreSQLContainer<?> POSTGRES = new PostgreSQLContainer<>("postgres:16-alpine")
+            .withCopyFileToContainer(MountableFile.forClasspathResource("database/migrations/init.sql"), "/docker-entrypoint-initdb.d/1-init.sql")
+            .withCopyFileToContainer(MountableFile.forClasspathResource("database/migrations/data.sql"), "/docker-entrypoint-initdb.d/2-data.sql");
+
+    static {
+        // Stopped by Testcontainers when the JVM exits
+        POSTGRES.start();
+    }
+
+    @DynamicPropertySource
+    static void datasource(DynamicPropertyRegistry registry) {
+        registry.add("spring.datasource.url", POSTGRES::getJdbcUrl);
+        registry.add("spring.datasource.username", POSTGRES::getUsername);
+        registry.add("spring.datasource.password", POSTGRES::getPassword);
+    }
+}
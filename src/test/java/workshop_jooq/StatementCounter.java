@@ -0,0 +1,49 @@
+package workshop_jooq;
+
+import org.jooq.ExecuteContext;
+import org.jooq.ExecuteListener;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * jOOQ listener that records every statement sent to the database.
+ * <p>
+ * A JDBC batch or a multi-statement query is executed once, so it counts as one round trip,
+ * however many statements it contains.
+ */
+public class StatementCounter implements ExecuteListener {
+    private final List<List<String>> roundTrips = new ArrayList<>();
+
+    @Override
+    public void executeStart(ExecuteContext ctx) {
+        String[] batch = ctx.batchSQL();
+        String[] sql = batch.length > 0 && batch[0] != null ? batch : new String[]{ctx.sql()};
+        // Statements joined into one multi-statement round trip are counted one by one
+        roundTrips.add(Arrays.stream(sql)
+                .flatMap(statements -> Arrays.stream(statements.split(";\n")))
+                .toList());
+    }
+
+    /**
+     * Forgets everything recorded so far.
+     */
+    public void reset() {
+        roundTrips.clear();
+    }
+
+    /**
+     * @return Number of times the database was called since the last reset
+     */
+    public int roundTrips() {
+        return roundTrips.size();
+    }
+
+    /**
+     * @return All statements sent since the last reset, in order
+     */
+    public List<String> statements() {
+        return roundTrips.stream().flatMap(List::stream).toList();
+    }
+}
@@ -0,0 +1,71 @@
+package workshop_jooq.repositories;
+
+import org.jooq.DSLContext;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jooq.JooqTest;
+import org.springframework.context.annotation.Import;
+import workshop_jooq.PostgresTestBase;
+import workshop_jooq.dtos.BulkLoadResultDto;
+import workshop_jooq.enam.BulkLoadTable;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+
+import static jooq.generated.tables.Property.PROPERTY;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Loads small feeds into the sample data; every test is rolled back afterwards.
+ */
+@JooqTest
+@Import(BulkLoadRepository.class)
+class BulkLoadRepositoryTest extends PostgresTestBase {
+    private static final UUID PROPERTY_ID = UUID.fromString("10000001-ab01-0000-0000-000000000001");
+
+    @Autowired
+    private BulkLoadRepository bulkLoadRepository;
+
+    @Autowired
+    private DSLContext dsl;
+
+    @Test
+    void partialFeedKeepsTheOmittedMandatoryColumns() throws IOException {
+        Integer price = price(PROPERTY_ID);
+
+        // price is NOT NULL without a default, but existing rows don't need it
+        BulkLoadResultDto result = bulkLoadRepository.load(BulkLoadTable.PROPERTIES,
+                csv("id,is_public_price\n" + PROPERTY_ID + ",false\n"));
+
+        assertThat(result.staged()).isEqualTo(1);
+        assertThat(result.merged()).isEqualTo(1);
+        var stored = dsl.fetchOne(PROPERTY, PROPERTY.ID.eq(PROPERTY_ID));
+        assertThat(stored.getIsPublicPrice()).isFalse();
+        assertThat(stored.getPrice()).isEqualTo(price);
+    }
+
+    @Test
+    void feedUpdatesExistingAndInsertsNewRows() throws IOException {
+        UUID newId = UUID.randomUUID();
+
+        BulkLoadResultDto result = bulkLoadRepository.load(BulkLoadTable.PROPERTIES,
+                csv("id,price\n" + PROPERTY_ID + ",100\n" + newId + ",200\n" + newId + ",300\n"));
+
+        // The repeated ID is merged once, with its last row
+        assertThat(result.staged()).isEqualTo(3);
+        assertThat(result.merged()).isEqualTo(2);
+        assertThat(price(PROPERTY_ID)).isEqualTo(100);
+        assertThat(price(newId)).isEqualTo(300);
+    }
+
+    private Integer price(UUID propertyId) {
+        return dsl.select(PROPERTY.PRICE).from(PROPERTY).where(PROPERTY.ID.eq(propertyId)).fetchOne(PROPERTY.PRICE);
+    }
+
+    private static InputStream csv(String content) {
+        return new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
+    }
+}
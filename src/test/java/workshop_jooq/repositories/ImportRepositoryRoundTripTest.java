@@ -0,0 +1,154 @@
+package workshop_jooq.repositories;
+
+import org.jooq.impl.DefaultExecuteListenerProvider;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jooq.JooqTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Import;
+import workshop_jooq.PostgresTestBase;
+import workshop_jooq.StatementCounter;
+import workshop_jooq.dtos.BrokerDto;
+import workshop_jooq.dtos.EmailDto;
+import workshop_jooq.dtos.PhoneNumberDto;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Counts the database round trips of broker writes, so that a regression to per-element statements is caught.
+ * <p>
+ * Every test runs in a transaction that is rolled back afterwards.
+ */
+@JooqTest
+@Import({ImportRepository.class, ImportRepositoryRoundTripTest.CounterConfiguration.class})
+class ImportRepositoryRoundTripTest extends PostgresTestBase {
+
+    @TestConfiguration
+    static class CounterConfiguration {
+        @Bean
+        StatementCounter statementCounter() {
+            return new StatementCounter();
+        }
+
+        @Bean
+        DefaultExecuteListenerProvider statementCounterProvider(StatementCounter statementCounter) {
+            return new DefaultExecuteListenerProvider(statementCounter);
+        }
+    }
+
+    @Autowired
+    private ImportRepository importRepository;
+
+    @Autowired
+    private StatementCounter statementCounter;
+
+    @BeforeEach
+    void resetCounter() {
+        statementCounter.reset();
+    }
+
+    @Test
+    void createBrokerWithContactsTakesOneRoundTrip() {
+        importRepository.createBroker(broker(List.of("BC", "BCA"), 3, 3));
+
+        assertThat(statementCounter.roundTrips()).isEqualTo(1);
+        // Broker, degrees, emails and phone numbers: one statement per table, whatever the number of contacts
+        assertThat(statementCounter.statements()).hasSize(4);
+        // Sent as prepared statements, not as static SQL with inlined values
+        assertThat(statementCounter.statements()).noneMatch(sql -> sql.contains("jana0@example.com"));
+    }
+
+    @Test
+    void createBrokerWithoutContactsTakesOneStatement() {
+        importRepository.createBroker(broker(List.of(), 0, 0));
+
+        assertThat(statementCounter.roundTrips()).isEqualTo(1);
+        assertThat(statementCounter.statements()).hasSize(1);
+    }
+
+    @Test
+    void createBrokerWithExternalIdTakesTwoRoundTrips() {
+        BrokerDto broker = broker(List.of("BC"), 2, 2);
+        broker.setExternalId("crm-" + UUID.randomUUID());
+
+        importRepository.createBroker(broker);
+
+        // The upsert, then the contacts of the broker it returned
+        assertThat(statementCounter.roundTrips()).isEqualTo(2);
+    }
+
+    @Test
+    void unchangedRetryOfAnImportWritesNothing() {
+        BrokerDto broker = broker(List.of("BC"), 2, 2);
+        broker.setExternalId("crm-" + UUID.randomUUID());
+        importRepository.createBroker(broker);
+        statementCounter.reset();
+
+        BrokerDto retried = importRepository.createBroker(broker);
+
+        // The skipped upsert, then reading back the unchanged broker
+        assertThat(statementCounter.roundTrips()).isEqualTo(2);
+        assertThat(retried.getVersion()).isZero();
+    }
+
+    @Test
+    void retryWithChangedContactsIsANewVersion() {
+        BrokerDto broker = broker(List.of("BC"), 2, 2);
+        broker.setExternalId("crm-" + UUID.randomUUID());
+        importRepository.createBroker(broker);
+
+        broker.setEmails(broker.getEmails().subList(1, 2));
+        BrokerDto retried = importRepository.createBroker(broker);
+
+        assertThat(retried.getVersion()).isEqualTo(1L);
+    }
+
+    @Test
+    void unchangedUpdateTakesOneRoundTrip() {
+        BrokerDto broker = importRepository.createBroker(broker(List.of("BC"), 3, 3));
+        statementCounter.reset();
+
+        BrokerDto updated = importRepository.updateBroker(broker);
+
+        // Only reading the broker: nothing is written and the version stays
+        assertThat(statementCounter.roundTrips()).isEqualTo(1);
+        assertThat(statementCounter.statements()).noneMatch(sql -> sql.startsWith("update"));
+        assertThat(updated.getVersion()).isZero();
+    }
+
+    @Test
+    void changedUpdateTakesTwoRoundTrips() {
+        BrokerDto broker = importRepository.createBroker(broker(List.of("BC"), 5, 5));
+        statementCounter.reset();
+
+        broker.setDegreeBefore(List.of("BCA"));
+        broker.setEmails(broker.getEmails().subList(1, 5));
+        broker.setPhoneNumbers(List.of(new PhoneNumberDto("+420 000 000 999", "work")));
+        importRepository.updateBroker(broker);
+
+        // Reading the current contacts, then the version increment, all deletes and inserts together
+        assertThat(statementCounter.roundTrips()).isEqualTo(2);
+        assertThat(broker.getVersion()).isEqualTo(1L);
+    }
+
+    private static BrokerDto broker(List<String> degrees, int emails, int phoneNumbers) {
+        BrokerDto broker = new BrokerDto();
+        broker.setFirstName("Jana");
+        broker.setLastName("Novakova");
+        broker.setIsPaidUser(true);
+        broker.setDegreeBefore(degrees);
+        broker.setEmails(IntStream.range(0, emails)
+                .mapToObj(i -> new EmailDto("jana" + i + "@example.com", "work"))
+                .toList());
+        broker.setPhoneNumbers(IntStream.range(0, phoneNumbers)
+                .mapToObj(i -> new PhoneNumberDto("+420 000 000 00" + i, "work"))
+                .toList());
+        return broker;
+    }
+}
@@ -0,0 +1,132 @@
+package workshop_jooq.repositories;
+
+import org.jooq.DSLContext;
+import org.jooq.ExecuteContext;
+import org.jooq.ExecuteListener;
+import org.jooq.Query;
+import org.jooq.impl.DefaultExecuteListenerProvider;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jooq.JooqTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Import;
+import workshop_jooq.PostgresTestBase;
+import workshop_jooq.dtos.PropertySearchFilterDto;
+import workshop_jooq.enam.PropertySearchSort;
+
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Checks with {@code EXPLAIN} that the property search is planned with the indexes meant for it.
+ * <p>
+ * The sample data is far too small for an index to beat a sequential scan, so sequential scans are
+ * disabled for the test's transaction: the planner still weighs the indexes against each other and
+ * against sorting, but not against reading the whole table. Every test is rolled back afterwards.
+ */
+@JooqTest
+@Import({PropertySearchRepository.class, PropertySearchPlanTest.CaptureConfiguration.class})
+class PropertySearchPlanTest extends PostgresTestBase {
+    private static final UUID OFFICE_ID = UUID.fromString("11111111-1ffc-1111-1111-111111111111");
+    private static final int PAGE_SIZE = 20;
+
+    /**
+     * Remembers the last executed query, so it can be explained with its bind values.
+     */
+    static class QueryCapture implements ExecuteListener {
+        private Query last;
+
+        @Override
+        public void executeStart(ExecuteContext ctx) {
+            last = ctx.query();
+        }
+    }
+
+    @TestConfiguration
+    static class CaptureConfiguration {
+        @Bean
+        QueryCapture queryCapture() {
+            return new QueryCapture();
+        }
+
+        @Bean
+        DefaultExecuteListenerProvider queryCaptureProvider(QueryCapture queryCapture) {
+            return new DefaultExecuteListenerProvider(queryCapture);
+        }
+    }
+
+    @Autowired
+    private PropertySearchRepository propertySearchRepository;
+
+    @Autowired
+    private QueryCapture queryCapture;
+
+    @Autowired
+    private DSLContext dsl;
+
+    @BeforeEach
+    void disableSequentialScans() {
+        dsl.execute("analyze property, address");
+        dsl.execute("set local enable_seqscan = off");
+    }
+
+    @Test
+    void priceOrderReadsThePublicPriceIndex() {
+        assertThat(plan(filter(null, null, null), PropertySearchSort.PRICE_ASC))
+                .contains("idx_property_public_price")
+                .doesNotContain("Sort Key");
+    }
+
+    @Test
+    void priceOrderOfAnOfficeReadsTheOfficePublicPriceIndex() {
+        assertThat(plan(filter(OFFICE_ID, null, null), PropertySearchSort.PRICE_DESC))
+                .contains("idx_property_office_public_price")
+                .doesNotContain("Sort Key");
+    }
+
+    @Test
+    void newestOrderReadsTheCreationTimeIndex() {
+        assertThat(plan(filter(null, null, null), PropertySearchSort.NEWEST))
+                .contains("idx_property_created_at")
+                .doesNotContain("Sort Key");
+    }
+
+    @Test
+    void newestOrderOfAnOfficeReadsTheOfficeCreationTimeIndex() {
+        assertThat(plan(filter(OFFICE_ID, null, null), PropertySearchSort.NEWEST))
+                .contains("idx_property_office_created_at")
+                .doesNotContain("Sort Key");
+    }
+
+    @Test
+    void cityFilterUsesTheCityIndex() {
+        // Sorted by city, which needs a sort anyway, so the filter doesn't compete with an index order
+        assertThat(plan(filter(null, null, "Dublin"), PropertySearchSort.CITY))
+                .contains("idx_address_city");
+    }
+
+    @Test
+    void countryFilterUsesTheCountryCityIndex() {
+        assertThat(plan(filter(null, "Ireland", null), PropertySearchSort.CITY))
+                .contains("idx_address_country_city");
+    }
+
+    @Test
+    void cityOrderIsSorted() {
+        // Documented as unindexed: the order spans address and property, which no single index can cover
+        assertThat(plan(filter(null, null, null), PropertySearchSort.CITY))
+                .contains("Sort Key");
+    }
+
+    private String plan(PropertySearchFilterDto filter, PropertySearchSort sort) {
+        propertySearchRepository.search(filter, sort, null, null, PAGE_SIZE);
+        return dsl.explain(queryCapture.last).plan();
+    }
+
+    private static PropertySearchFilterDto filter(UUID officeId, String country, String city) {
+        return new PropertySearchFilterDto(officeId, country, city, null, null, false, null);
+    }
+}
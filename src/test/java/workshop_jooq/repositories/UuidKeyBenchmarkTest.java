@@ -0,0 +1,96 @@
+package workshop_jooq.repositories;
+
+import lombok.extern.slf4j.Slf4j;
+import org.jooq.DSLContext;
+import org.jooq.Field;
+import org.jooq.Row2;
+import org.jooq.Table;
+import org.jooq.impl.DSL;
+import org.jooq.impl.SQLDataType;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jooq.JooqTest;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import workshop_jooq.PostgresTestBase;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.function.Supplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Compares random (version 4) with time-ordered ({@link UuidV7}) primary keys: insert throughput and primary key index size.
+ * <p>
+ * Each variant inserts the same number of rows into its own table, with multi-row inserts as the imports do,
+ * one transaction per statement. Random keys split pages all over the B-tree and leave them half full,
+ * while time-ordered keys append to the rightmost leaf, so the index size is the stable result and is asserted.
+ * Throughput is only logged; at this scale it's dominated by round trips and varies between machines.
+ * <p>
+ * Not part of the regular test run; enable it with {@code mvn test -Dbenchmark=true -Dtest=UuidKeyBenchmarkTest}.
+ */
+@JooqTest
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+@Slf4j
+class UuidKeyBenchmarkTest extends PostgresTestBase {
+    private static final int ROWS = 500_000;
+    private static final int ROWS_PER_STATEMENT = 1_000;
+
+    private static final Field<UUID> ID = DSL.field(DSL.name("id"), SQLDataType.UUID);
+    private static final Field<String> PAYLOAD = DSL.field(DSL.name("payload"), SQLDataType.CLOB);
+
+    private record Measurement(String keys, long millis, long indexBytes) {
+        long rowsPerSecond() {
+            return ROWS * 1000L / Math.max(1, millis);
+        }
+    }
+
+    @Autowired
+    private DSLContext dsl;
+
+    @Test
+    void timeOrderedKeysKeepThePrimaryKeySmaller() {
+        // Warms up the connection, the JIT and the statement cache, so neither variant pays for them
+        measure("uuid_benchmark_warmup", "warm-up", UuidV7::next);
+
+        Measurement v4 = measure("uuid_benchmark_v4", "v4", UUID::randomUUID);
+        Measurement v7 = measure("uuid_benchmark_v7", "v7", UuidV7::next);
+
+        for (Measurement measurement : List.of(v4, v7)) {
+            log.info("{} keys: {} rows in {} ms ({} rows/s), primary key index {} kB",
+                    measurement.keys(), ROWS, measurement.millis(), measurement.rowsPerSecond(), measurement.indexBytes() / 1024);
+        }
+        assertThat(v7.indexBytes()).isLessThan(v4.indexBytes());
+    }
+
+    private Measurement measure(String tableName, String keys, Supplier<UUID> ids) {
+        Table<?> table = DSL.table(DSL.name(tableName));
+        dsl.dropTableIfExists(table).execute();
+        dsl.createTable(table)
+                .column(ID.getName(), SQLDataType.UUID.notNull())
+                .column(PAYLOAD.getName(), SQLDataType.CLOB)
+                .constraints(DSL.constraint(tableName + "_pkey").primaryKey(ID.getName()))
+                .execute();
+        try {
+            long start = System.nanoTime();
+            for (int inserted = 0; inserted < ROWS; inserted += ROWS_PER_STATEMENT) {
+                List<Row2<UUID, String>> rows = new ArrayList<>(ROWS_PER_STATEMENT);
+                for (int i = 0; i < ROWS_PER_STATEMENT; i++) {
+                    rows.add(DSL.row(ids.get(), "broker " + (inserted + i)));
+                }
+                dsl.insertInto(table, ID, PAYLOAD).valuesOfRows(rows).execute();
+            }
+            long millis = (System.nanoTime() - start) / 1_000_000;
+
+            Long indexBytes = dsl.fetchValue(DSL.field("pg_relation_size(cast({0} as regclass))", SQLDataType.BIGINT,
+                    DSL.inline(tableName + "_pkey")));
+            return new Measurement(keys, millis, indexBytes);
+        } finally {
+            dsl.dropTable(table).execute();
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package workshop_jooq.services;
+
+import jakarta.persistence.EntityNotFoundException;
+import org.jooq.DSLContext;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jooq.JooqTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import workshop_jooq.PostgresTestBase;
+import workshop_jooq.dtos.BrokerDto;
+import workshop_jooq.repositories.ImportRepository;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+
+import static jooq.generated.tables.Broker.BROKER;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Checks that a group is applied in submission order, and that a failed group is replayed from the state the callers submitted.
+ * <p>
+ * The committer writes from its own thread, so the tests run without a surrounding transaction
+ * and delete what they created. The window is long enough for two writes submitted back to back to share a group.
+ */
+@JooqTest(properties = "import.brokers.group-commit.window=500ms")
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+@Import({ImportRepository.class, BrokerGroupCommitter.class})
+class BrokerGroupCommitterTest extends PostgresTestBase {
+
+    @Autowired
+    private ImportRepository importRepository;
+
+    @Autowired
+    private BrokerGroupCommitter groupCommitter;
+
+    @Autowired
+    private DSLContext dsl;
+
+    @Test
+    void failedGroupReplaysUpdatesWithTheirExpectedVersion() {
+        BrokerDto broker = importRepository.createBroker(broker());
+        try {
+            broker.setFirstName("Renamed");
+            BrokerDto missing = broker();
+            missing.setId(UUID.randomUUID());
+
+            // The missing broker fails the group after the first update has already been applied in it
+            CompletableFuture<BrokerDto> updated = groupCommitter.submitUpdate(broker);
+            CompletableFuture<BrokerDto> failed = groupCommitter.submitUpdate(missing);
+
+            assertThat(updated.join().getVersion()).isEqualTo(1L);
+            assertThatThrownBy(failed::join).hasCauseInstanceOf(EntityNotFoundException.class);
+        } finally {
+            importRepository.deleteBroker(broker.getId());
+        }
+    }
+
+    @Test
+    void groupAppliesCreatesAndUpdatesInSubmissionOrder() {
+        String externalId = "crm-" + UUID.randomUUID();
+        BrokerDto stored = broker();
+        stored.setExternalId(externalId);
+        stored = importRepository.createBroker(stored);
+        try {
+            BrokerDto update = broker();
+            update.setId(stored.getId());
+            update.setFirstName("Updated");
+            // Unconditional, so a wrong order isn't hidden by a failed version check and a replay
+            update.setVersion(null);
+            BrokerDto repost = broker();
+            repost.setExternalId(externalId);
+            repost.setFirstName("Reposted");
+
+            // The re-posted import upserts the same broker after the update, so it has the last word
+            CompletableFuture<BrokerDto> updated = groupCommitter.submitUpdate(update);
+            CompletableFuture<BrokerDto> reposted = groupCommitter.submitCreate(repost);
+
+            assertThat(updated.join().getVersion()).isEqualTo(1L);
+            assertThat(reposted.join().getVersion()).isEqualTo(2L);
+            assertThat(reposted.join().getId()).isEqualTo(stored.getId());
+            assertThat(dsl.select(BROKER.FIRST_NAME).from(BROKER).where(BROKER.ID.eq(stored.getId())).fetchOne(BROKER.FIRST_NAME))
+                    .isEqualTo("Reposted");
+        } finally {
+            importRepository.deleteBroker(stored.getId());
+        }
+    }
+
+    private static BrokerDto broker() {
+        BrokerDto broker = new BrokerDto();
+        broker.setFirstName("Jana");
+        broker.setLastName("Novakova");
+        broker.setIsPaidUser(true);
+        broker.setDegreeBefore(List.of());
+        broker.setEmails(List.of());
+        broker.setPhoneNumbers(List.of());
+        // An update with a version is a compare-and-set, so a replay with the wrong version would fail with 412
+        broker.setVersion(0L);
+        return broker;
+    }
+}